@@ -0,0 +1,27 @@
+package org.junoyoon.gitonline.bench;
+
+import org.junoyoon.gitonline.cmd.OnlineAddCommand;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link OnlineAddCommand#call} changing one existing file per commit, so the tree keeps its shape.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AddBenchmark extends BenchmarkRepository {
+
+	private int next;
+
+	@Benchmark
+	public void add() throws Exception {
+		int changed = next++;
+		new OnlineAddCommand().call(repository, Collections.singletonList(newFile(path(changed), next)),
+				AUTHOR, AUTHOR, "add " + next);
+	}
+}
@@ -0,0 +1,111 @@
+package org.junoyoon.gitonline.bench;
+
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.junoyoon.gitonline.cmd.OnlineChangesetCommand;
+import org.junoyoon.gitonline.cmd.RepositoryGenerator;
+import org.junoyoon.gitonline.cmd.RepositoryWriteQueue;
+import org.junoyoon.gitonline.index.ChangedPathIndex;
+import org.junoyoon.gitonline.model.Change;
+import org.junoyoon.gitonline.model.FileEntry;
+import org.junoyoon.gitonline.model.User;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bare repository built by {@link RepositoryGenerator} with {@code fileCount} files of
+ * {@code blobSize} bytes, in directories up to {@code depth} levels deep with at most
+ * {@code fanOut} subdirectories each, and {@code historyDepth} more commits.
+ */
+@State(Scope.Benchmark)
+public abstract class BenchmarkRepository {
+
+	static final User AUTHOR = new User("bench", "bench@example.com");
+
+	@Param({"100", "10000"})
+	public int fileCount;
+
+	@Param({"16", "256"})
+	public int fanOut;
+
+	@Param({"3"})
+	public int depth;
+
+	@Param({"10", "200"})
+	public int historyDepth;
+
+	@Param({"0"})
+	public int mergeEvery;
+
+	@Param({"64", "65536"})
+	public int blobSize;
+
+	protected File gitDir;
+	protected FileRepository repository;
+	protected List<String> paths;
+
+	@Setup(Level.Trial)
+	public void createRepository() throws Exception {
+		gitDir = Files.createTempDir();
+		RepositoryGenerator generator = new RepositoryGenerator().setFileCount(fileCount).setDepth(depth).setFanOut(fanOut)
+				.setHistoryLength(historyDepth).setMergeEvery(mergeEvery)
+				.setBlobSizes(RepositoryGenerator.SizeDistribution.fixed(blobSize));
+		repository = generator.generate(gitDir);
+		paths = generator.getPaths();
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteRepository() throws Exception {
+		RepositoryWriteQueue.remove(repository);
+		ChangedPathIndex.remove(repository);
+		repository.close();
+		FileUtils.deleteDirectory(gitDir);
+	}
+
+	protected void commit(List<Change> changes, String message) throws Exception {
+		new OnlineChangesetCommand().apply(repository, changes, AUTHOR, AUTHOR, message);
+	}
+
+	protected String path(int i) {
+		return paths.get(i % paths.size());
+	}
+
+	/**
+	 * @return the directory which directly holds the most files
+	 */
+	protected String largestDirectory() {
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		String largest = "";
+		for (String each : paths) {
+			int slash = each.lastIndexOf('/');
+			String directory = slash < 0 ? "" : each.substring(0, slash);
+			Integer count = counts.get(directory);
+			counts.put(directory, count == null ? 1 : count + 1);
+			if (counts.get(directory) > (counts.containsKey(largest) ? counts.get(largest) : 0)) {
+				largest = directory;
+			}
+		}
+		return largest;
+	}
+
+	protected FileEntry newFile(String path, int seed) {
+		byte[] content = new byte[blobSize];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) ('a' + (seed + i) % 26);
+		}
+		FileEntry fileEntry = new FileEntry();
+		fileEntry.setPath(path);
+		fileEntry.setContentBytes(content);
+		return fileEntry;
+	}
+}
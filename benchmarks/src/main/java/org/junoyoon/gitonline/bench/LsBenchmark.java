@@ -0,0 +1,45 @@
+package org.junoyoon.gitonline.bench;
+
+import org.junoyoon.gitonline.cmd.OnlineLsCommand;
+import org.junoyoon.gitonline.model.EntryField;
+import org.junoyoon.gitonline.model.FileEntry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link OnlineLsCommand#getLs} of the directory holding the most files, with or without the last commit
+ * of every entry. The last commits are found by walking the history, not from the index.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LsBenchmark extends BenchmarkRepository {
+
+	@Param({"true", "false"})
+	public boolean lastCommit;
+
+	private OnlineLsCommand command;
+	private String directory;
+	private Set<EntryField> fields;
+
+	@Setup(Level.Trial)
+	public void createCommand() {
+		command = new OnlineLsCommand(repository).setUseLastCommitIndex(false);
+		directory = largestDirectory();
+		fields = lastCommit ? EnumSet.of(EntryField.LAST_COMMIT) : EnumSet.noneOf(EntryField.class);
+	}
+
+	@Benchmark
+	public List<FileEntry> ls() throws Exception {
+		return command.getLs("HEAD", directory, fields);
+	}
+}
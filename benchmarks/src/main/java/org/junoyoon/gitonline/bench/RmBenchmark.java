@@ -0,0 +1,40 @@
+package org.junoyoon.gitonline.bench;
+
+import org.junoyoon.gitonline.cmd.OnlineRmCommand;
+import org.junoyoon.gitonline.model.Change;
+import org.junoyoon.gitonline.model.FileEntry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link OnlineRmCommand#call} deleting one file per commit. The file is put back before every
+ * invocation, outside of the measurement.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RmBenchmark extends BenchmarkRepository {
+
+	private int next;
+	private FileEntry target;
+
+	@Setup(Level.Invocation)
+	public void restore() throws Exception {
+		if (target != null) {
+			commit(Collections.singletonList(Change.put(newFile(target.getPath(), next))), "restore " + next);
+		}
+		target = new FileEntry();
+		target.setPath(path(next++));
+	}
+
+	@Benchmark
+	public void rm() throws Exception {
+		new OnlineRmCommand().call(repository, Collections.singletonList(target), AUTHOR, AUTHOR, "rm " + next);
+	}
+}
@@ -0,0 +1,171 @@
+package org.junoyoon.gitonline.bench;
+
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.junoyoon.gitonline.cmd.ChangesetConflictException;
+import org.junoyoon.gitonline.cmd.OnlineAddCommand;
+import org.junoyoon.gitonline.cmd.OnlineLsCommand;
+import org.junoyoon.gitonline.cmd.OnlineRmCommand;
+import org.junoyoon.gitonline.cmd.RepositoryGenerator;
+import org.junoyoon.gitonline.cmd.RepositoryWriteQueue;
+import org.junoyoon.gitonline.index.ChangedPathIndex;
+import org.junoyoon.gitonline.metrics.CommandMetrics;
+import org.junoyoon.gitonline.model.FileEntry;
+import org.junoyoon.gitonline.model.User;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drive concurrent ls, add and rm traffic against a generated repository for a while, then report
+ * the throughput and the latency percentiles of every operation.
+ * <p/>
+ * {@code java -cp benchmarks.jar org.junoyoon.gitonline.bench.Soak [threads] [seconds] [files] [history] [seed]}
+ */
+public class Soak {
+
+	private static final User USER = new User("soak", "soak@example.com");
+
+	private enum Operation {LS, ADD, RM}
+
+	private final FileRepository repository;
+	private final List<String> paths;
+	private final List<String> directories;
+
+	Soak(FileRepository repository, List<String> paths) {
+		this.repository = repository;
+		this.paths = paths;
+		LinkedHashSet<String> parents = new LinkedHashSet<String>();
+		for (String each : paths) {
+			int slash = each.lastIndexOf('/');
+			parents.add(slash < 0 ? "" : each.substring(0, slash));
+		}
+		this.directories = new ArrayList<String>(parents);
+	}
+
+	public static void main(String[] args) throws Exception {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 60;
+		int files = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+		int history = args.length > 3 ? Integer.parseInt(args[3]) : 500;
+		long seed = args.length > 4 ? Long.parseLong(args[4]) : 42;
+
+		File gitDir = Files.createTempDir();
+		try {
+			RepositoryGenerator generator = new RepositoryGenerator().setSeed(seed).setFileCount(files)
+					.setHistoryLength(history).setMergeEvery(10);
+			long started = System.nanoTime();
+			FileRepository repository = generator.generate(gitDir);
+			System.out.printf("generated %d files and %d steps of history in %d ms%n", files, history,
+					TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+			try {
+				new Soak(repository, generator.getPaths()).run(threads, seconds, seed);
+			} finally {
+				RepositoryWriteQueue.remove(repository);
+				ChangedPathIndex.remove(repository);
+				repository.close();
+			}
+		} finally {
+			FileUtils.deleteDirectory(gitDir);
+		}
+	}
+
+	void run(int threads, int seconds, long seed) throws Exception {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<Map<Operation, List<Long>>>> results = new ArrayList<Future<Map<Operation, List<Long>>>>();
+		for (int i = 0; i < threads; i++) {
+			final Random random = new Random(seed + i);
+			results.add(executor.submit(new Callable<Map<Operation, List<Long>>>() {
+				@Override
+				public Map<Operation, List<Long>> call() throws Exception {
+					return drive(random, deadline);
+				}
+			}));
+		}
+		executor.shutdown();
+
+		Map<Operation, List<Long>> latencies = new HashMap<Operation, List<Long>>();
+		for (Operation each : Operation.values()) {
+			latencies.put(each, new ArrayList<Long>());
+		}
+		for (Future<Map<Operation, List<Long>>> each : results) {
+			for (Map.Entry<Operation, List<Long>> entry : each.get().entrySet()) {
+				latencies.get(entry.getKey()).addAll(entry.getValue());
+			}
+		}
+		report(latencies, seconds);
+	}
+
+	/*
+	 * ls 가 대부분이고 add, rm 이 섞인 traffic. rm 된 파일은 나중의 add 가 다시 만든다.
+	 */
+	private Map<Operation, List<Long>> drive(Random random, long deadline) throws Exception {
+		Map<Operation, List<Long>> latencies = new HashMap<Operation, List<Long>>();
+		for (Operation each : Operation.values()) {
+			latencies.put(each, new ArrayList<Long>());
+		}
+		OnlineLsCommand ls = new OnlineLsCommand(repository);
+		int sequence = 0;
+		while (System.nanoTime() < deadline) {
+			int dice = random.nextInt(100);
+			Operation operation = dice < 70 ? Operation.LS : dice < 90 ? Operation.ADD : Operation.RM;
+			FileEntry fileEntry = new FileEntry();
+			fileEntry.setPath(paths.get(random.nextInt(paths.size())));
+			long started = System.nanoTime();
+			try {
+				switch (operation) {
+					case LS:
+						ls.getLs("HEAD", directories.get(random.nextInt(directories.size())));
+						break;
+					case ADD:
+						fileEntry.setContent("soak " + Thread.currentThread().getName() + " " + sequence++);
+						new OnlineAddCommand().call(repository, Collections.singletonList(fileEntry), USER, USER, "soak add");
+						break;
+					case RM:
+						new OnlineRmCommand().call(repository, Collections.singletonList(fileEntry), USER, USER, "soak rm");
+						break;
+				}
+			} catch (ChangesetConflictException e) {
+				// counted by the write queue, the latency is still what the caller saw
+			}
+			latencies.get(operation).add(System.nanoTime() - started);
+		}
+		return latencies;
+	}
+
+	private void report(Map<Operation, List<Long>> latencies, int seconds) {
+		System.out.printf("%-4s %10s %10s %10s %10s %10s %10s%n", "op", "count", "ops/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+		for (Operation each : Operation.values()) {
+			List<Long> sorted = latencies.get(each);
+			if (sorted.isEmpty()) {
+				continue;
+			}
+			Collections.sort(sorted);
+			System.out.printf("%-4s %10d %10.1f %10.2f %10.2f %10.2f %10.2f%n", each, sorted.size(),
+					sorted.size() / (double) seconds, millis(sorted, 0.5), millis(sorted, 0.99),
+					millis(sorted, 0.999), millis(sorted, 1.0));
+		}
+		RepositoryWriteQueue queue = RepositoryWriteQueue.get(repository);
+		System.out.printf("write queue: %d batches, %d retries, %d conflicts%n",
+				queue.getBatchCount(), queue.getRetryCount(), queue.getConflictCount());
+		System.out.println(CommandMetrics.getDefault());
+	}
+
+	private double millis(List<Long> sorted, double quantile) {
+		int index = (int) Math.ceil(quantile * sorted.size()) - 1;
+		return sorted.get(Math.max(0, index)) / 1e6;
+	}
+}
@@ -0,0 +1,222 @@
+package org.junoyoon.gitonline.cmd;
+
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junoyoon.gitonline.metrics.CommandListener;
+import org.junoyoon.gitonline.metrics.CommandMetrics;
+import org.junoyoon.gitonline.model.BlobContent;
+import org.junoyoon.gitonline.model.Change;
+import org.junoyoon.gitonline.model.EntryField;
+import org.junoyoon.gitonline.model.FileDiff;
+import org.junoyoon.gitonline.model.FileEntry;
+import org.junoyoon.gitonline.model.GrepMatch;
+import org.junoyoon.gitonline.model.LogPage;
+import org.junoyoon.gitonline.model.LsPage;
+import org.junoyoon.gitonline.model.User;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Run the online commands without blocking the caller.
+ * <p/>
+ * Every method returns at once with a {@link CompletableFuture}, and the disk and history work is
+ * done on the executor. Writes go through the {@link RepositoryWriteQueue} of their repository, so
+ * they are committed in the order they were submitted, batched with the other writers.
+ */
+public class AsyncOnlineCommands {
+
+	private final ExecutorService executor;
+	private RepositoryManager repositoryManager;
+	private CommandListener listener = CommandMetrics.getDefault();
+
+	/**
+	 * Run the commands on virtual threads if the JVM has them, or on a cached pool of daemon threads.
+	 */
+	public AsyncOnlineCommands() {
+		this(newDefaultExecutor());
+	}
+
+	public AsyncOnlineCommands(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Borrow the readers and walks of the reads from {@code repositoryManager}.
+	 */
+	public AsyncOnlineCommands setRepositoryManager(RepositoryManager repositoryManager) {
+		this.repositoryManager = repositoryManager;
+		return this;
+	}
+
+	public AsyncOnlineCommands setListener(CommandListener listener) {
+		this.listener = listener;
+		return this;
+	}
+
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+
+	public CompletableFuture<List<FileEntry>> getLs(Repository repository, String branch, String path) {
+		return getLs(repository, branch, path, OnlineLsCommand.DEFAULT_FIELDS);
+	}
+
+	/**
+	 * @see OnlineLsCommand#getLs(String, String, Set)
+	 */
+	public CompletableFuture<List<FileEntry>> getLs(final Repository repository, final String branch, final String path,
+													final Set<EntryField> fields) {
+		return submit(new Callable<List<FileEntry>>() {
+			@Override
+			public List<FileEntry> call() throws Exception {
+				return newLsCommand(repository).getLs(branch, path, fields);
+			}
+		});
+	}
+
+	/**
+	 * @see OnlineLsCommand#getLsPage(String, String, String, int, Set)
+	 */
+	public CompletableFuture<LsPage> getLsPage(final Repository repository, final String branch, final String path,
+											   final String pageToken, final int limit, final Set<EntryField> fields) {
+		return submit(new Callable<LsPage>() {
+			@Override
+			public LsPage call() throws Exception {
+				return newLsCommand(repository).getLsPage(branch, path, pageToken, limit, fields);
+			}
+		});
+	}
+
+	/**
+	 * @see OnlineReadCommand#read(String, String, long, long)
+	 */
+	public CompletableFuture<BlobContent> read(final Repository repository, final String revision, final String path,
+											   final long offset, final long length) {
+		return submit(new Callable<BlobContent>() {
+			@Override
+			public BlobContent call() throws Exception {
+				return new OnlineReadCommand(repository).setRepositoryManager(repositoryManager)
+						.read(revision, path, offset, length);
+			}
+		});
+	}
+
+	/**
+	 * @see OnlineLogCommand#getLog(String, String, String, int)
+	 */
+	public CompletableFuture<LogPage> getLog(final Repository repository, final String revision, final String path,
+											 final String cursor, final int limit) {
+		return submit(new Callable<LogPage>() {
+			@Override
+			public LogPage call() throws Exception {
+				return new OnlineLogCommand(repository).setRepositoryManager(repositoryManager).setListener(listener)
+						.getLog(revision, path, cursor, limit);
+			}
+		});
+	}
+
+	/**
+	 * @see OnlineDiffCommand#getDiff(String, String, String)
+	 */
+	public CompletableFuture<List<FileDiff>> getDiff(final Repository repository, final String oldRevision,
+													 final String newRevision, final String path) {
+		return submit(new Callable<List<FileDiff>>() {
+			@Override
+			public List<FileDiff> call() throws Exception {
+				return new OnlineDiffCommand(repository).setRepositoryManager(repositoryManager).setListener(listener)
+						.getDiff(oldRevision, newRevision, path);
+			}
+		});
+	}
+
+	/**
+	 * @see OnlineGrepCommand#grep(String, String, String, int)
+	 */
+	public CompletableFuture<List<GrepMatch>> grep(final Repository repository, final String revision, final String path,
+												   final String pattern, final boolean regex, final int limit) {
+		return submit(new Callable<List<GrepMatch>>() {
+			@Override
+			public List<GrepMatch> call() throws Exception {
+				return new OnlineGrepCommand(repository).setRepositoryManager(repositoryManager).setListener(listener)
+						.setRegex(regex).grep(revision, path, pattern, limit);
+			}
+		});
+	}
+
+	/**
+	 * Commit {@code changes} on top of HEAD.
+	 *
+	 * @see OnlineChangesetCommand#apply(FileRepository, List, User, User, String)
+	 */
+	public CompletableFuture<RevCommit> apply(FileRepository repo, List<Change> changes, User author, User committer,
+											  String message) {
+		return RepositoryWriteQueue.get(repo).submit(repo, changes, author, committer, message, listener, executor);
+	}
+
+	public CompletableFuture<RevCommit> add(FileRepository repo, List<FileEntry> fileEntries, User author, User committer,
+											String message) {
+		return apply(repo, Change.puts(fileEntries), author, committer, message);
+	}
+
+	public CompletableFuture<RevCommit> rm(FileRepository repo, List<FileEntry> fileEntries, User author, User committer,
+										   String message) {
+		return apply(repo, Change.deletes(fileEntries), author, committer, message);
+	}
+
+	/**
+	 * Stop accepting commands. The commands already submitted still complete.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	private OnlineLsCommand newLsCommand(Repository repository) {
+		return new OnlineLsCommand(repository).setRepositoryManager(repositoryManager).setListener(listener);
+	}
+
+	private <T> CompletableFuture<T> submit(final Callable<T> task) {
+		final CompletableFuture<T> future = new CompletableFuture<T>();
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						future.complete(task.call());
+					} catch (Throwable e) {
+						future.completeExceptionally(e);
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/*
+	 * virtual thread 는 Java 21 부터 있으므로 reflection 으로 찾고, 없으면 daemon thread pool 을 쓴다
+	 */
+	static ExecutorService newDefaultExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (Exception e) {
+			final AtomicInteger sequence = new AtomicInteger();
+			return Executors.newCachedThreadPool(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "git-online-async-" + sequence.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package org.junoyoon.gitonline.cmd;
+
+import java.util.Set;
+
+/**
+ * Thrown when a changeset could not be rebased onto a HEAD moved by another writer
+ * because both of them changed the same paths.
+ */
+public class ChangesetConflictException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final Set<String> paths;
+
+	public ChangesetConflictException(Set<String> paths) {
+		super("Conflicting paths : " + paths);
+		this.paths = paths;
+	}
+
+	public Set<String> getPaths() {
+		return paths;
+	}
+}
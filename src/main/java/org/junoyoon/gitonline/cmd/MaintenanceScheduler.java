@@ -0,0 +1,295 @@
+package org.junoyoon.gitonline.cmd;
+
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.GC;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junoyoon.gitonline.index.ChangedPathIndex;
+import org.junoyoon.gitonline.index.LastCommitIndex;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keep the repositories written by the online commands packed, in the background.
+ * <p/>
+ * Every commit adds loose objects and updates loose refs, which slow down the reads as they pile
+ * up. After {@code checkEvery} commits to a repository, its statistics are read on the scheduler's
+ * executor, and if there are more loose objects or packs than the limits, its objects are repacked
+ * and the unreachable loose objects older than {@code pruneExpireMillis} are pruned. Too many loose
+ * refs are packed as well, the {@link ChangedPathIndex} filters of the commits which have none,
+ * e.g. those pushed from outside, are generated, and the {@link LastCommitIndex} entries of the tips
+ * no ref points to are dropped.
+ * <p/>
+ * Maintenance never takes the write lock. A repack keeps the packs of the commits being written,
+ * see {@link PackInserter}, and a writer which finds HEAD locked by the ref packing retries like it
+ * does for any other concurrent update.
+ * <p/>
+ * Runs are rate limited twice: a repository is maintained at most once every
+ * {@code minIntervalMillis}, and two runs, of any repositories, start at least {@code minGapMillis}
+ * apart.
+ */
+public class MaintenanceScheduler {
+
+	/**
+	 * Same as git's {@code gc.auto}.
+	 */
+	public static final long DEFAULT_LOOSE_OBJECT_LIMIT = 6700;
+
+	/**
+	 * Same as git's {@code gc.autoPackLimit}.
+	 */
+	public static final int DEFAULT_PACK_LIMIT = 50;
+
+	public static final int DEFAULT_LOOSE_REF_LIMIT = 100;
+
+	private final ScheduledExecutorService executor;
+	private final ConcurrentMap<File, Maintained> repositories = new ConcurrentHashMap<File, Maintained>();
+	private final AtomicLong nextSlot = new AtomicLong();
+
+	private volatile int checkEvery = 100;
+	private volatile long looseObjectLimit = DEFAULT_LOOSE_OBJECT_LIMIT;
+	private volatile int packLimit = DEFAULT_PACK_LIMIT;
+	private volatile int looseRefLimit = DEFAULT_LOOSE_REF_LIMIT;
+	private volatile long minIntervalMillis = TimeUnit.MINUTES.toMillis(10);
+	private volatile long minGapMillis = TimeUnit.SECONDS.toMillis(1);
+	private volatile long pruneExpireMillis = TimeUnit.DAYS.toMillis(14);
+
+	private final AtomicLong runCount = new AtomicLong();
+	private final AtomicLong repackCount = new AtomicLong();
+	private final AtomicLong packRefsCount = new AtomicLong();
+	private final AtomicLong indexedCommitCount = new AtomicLong();
+	private final AtomicLong failureCount = new AtomicLong();
+	private volatile Exception lastFailure;
+
+	/**
+	 * Maintain one repository at a time on a daemon thread.
+	 */
+	public MaintenanceScheduler() {
+		this(Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			private final AtomicInteger sequence = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "git-online-maintenance-" + sequence.incrementAndGet());
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		}));
+	}
+
+	/**
+	 * @param executor the number of its threads is the number of repositories maintained at a time
+	 */
+	public MaintenanceScheduler(ScheduledExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * @param checkEvery number of commits to a repository between two reads of its statistics
+	 */
+	public MaintenanceScheduler setCheckEvery(int checkEvery) {
+		this.checkEvery = checkEvery;
+		return this;
+	}
+
+	/**
+	 * Repack when a repository has more loose objects than {@code looseObjectLimit} or more packs
+	 * than {@code packLimit}.
+	 */
+	public MaintenanceScheduler setRepackLimits(long looseObjectLimit, int packLimit) {
+		this.looseObjectLimit = looseObjectLimit;
+		this.packLimit = packLimit;
+		return this;
+	}
+
+	public MaintenanceScheduler setLooseRefLimit(int looseRefLimit) {
+		this.looseRefLimit = looseRefLimit;
+		return this;
+	}
+
+	/**
+	 * @param minIntervalMillis minimum time between two runs on one repository
+	 * @param minGapMillis      minimum time between the starts of two runs on any repositories
+	 */
+	public MaintenanceScheduler setRateLimit(long minIntervalMillis, long minGapMillis) {
+		this.minIntervalMillis = minIntervalMillis;
+		this.minGapMillis = minGapMillis;
+		return this;
+	}
+
+	/**
+	 * @param pruneExpireMillis unreachable loose objects younger than this are not pruned, since they
+	 *                          may belong to a commit being written
+	 */
+	public MaintenanceScheduler setPruneExpireMillis(long pruneExpireMillis) {
+		this.pruneExpireMillis = pruneExpireMillis;
+		return this;
+	}
+
+	/**
+	 * Count {@code commits} new commits to {@code repo}, and schedule a check of its statistics
+	 * every {@code checkEvery} commits. Returns at once.
+	 */
+	public void onCommit(FileRepository repo, int commits) {
+		Maintained maintained = get(repo);
+		if (maintained.commits.addAndGet(commits) >= checkEvery) {
+			schedule(maintained);
+		}
+	}
+
+	/**
+	 * Schedule a check of the statistics of {@code repo} regardless of the number of commits.
+	 */
+	public void request(FileRepository repo) {
+		schedule(get(repo));
+	}
+
+	/**
+	 * Forget {@code repo}, e.g. when it is deleted. A run already scheduled still happens.
+	 */
+	public void remove(FileRepository repo) {
+		repositories.remove(repo.getDirectory().getAbsoluteFile());
+	}
+
+	/**
+	 * Read the statistics of {@code repo}, repack, prune and pack its refs as needed, index the new
+	 * commits and drop the index entries of old tips, on the caller thread.
+	 *
+	 * @return the statistics before the maintenance
+	 */
+	public GC.RepoStatistics maintain(FileRepository repo) throws Exception {
+		runCount.incrementAndGet();
+		GC gc = new GC(repo);
+		gc.setExpireAgeMillis(pruneExpireMillis);
+		GC.RepoStatistics statistics = gc.getStatistics();
+		if (statistics.numberOfLooseObjects > looseObjectLimit || statistics.numberOfPackFiles > packLimit) {
+			gc.repack();
+			gc.prune(Collections.<ObjectId>emptySet());
+			repackCount.incrementAndGet();
+		}
+		if (statistics.numberOfLooseRefs > looseRefLimit) {
+			gc.packRefs();
+			packRefsCount.incrementAndGet();
+		}
+		indexedCommitCount.addAndGet(ChangedPathIndex.get(repo).build());
+		new LastCommitIndex(repo).prune();
+		return statistics;
+	}
+
+	/**
+	 * Stop scheduling. A run already started is finished.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	/**
+	 * Wait for the runs already started after {@link #shutdown()}.
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return executor.awaitTermination(timeout, unit);
+	}
+
+	public long getRunCount() {
+		return runCount.get();
+	}
+
+	public long getRepackCount() {
+		return repackCount.get();
+	}
+
+	public long getPackRefsCount() {
+		return packRefsCount.get();
+	}
+
+	/**
+	 * @return number of commits whose changed-path filters were generated by the runs
+	 */
+	public long getIndexedCommitCount() {
+		return indexedCommitCount.get();
+	}
+
+	public long getFailureCount() {
+		return failureCount.get();
+	}
+
+	/**
+	 * @return the failure of the last failed background run, or {@code null}
+	 */
+	public Exception getLastFailure() {
+		return lastFailure;
+	}
+
+	private Maintained get(FileRepository repo) {
+		File key = repo.getDirectory().getAbsoluteFile();
+		Maintained maintained = repositories.get(key);
+		if (maintained == null) {
+			Maintained created = new Maintained(repo);
+			maintained = repositories.putIfAbsent(key, created);
+			if (maintained == null) {
+				maintained = created;
+			}
+		}
+		return maintained;
+	}
+
+	/*
+	 * 이미 예약되어 있으면 다시 예약하지 않는다. 저장소마다의 간격과 전체의 간격을 모두 지키는 가장 이른 시각에 예약한다.
+	 */
+	private void schedule(final Maintained maintained) {
+		if (!maintained.scheduled.compareAndSet(false, true)) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		long earliest = Math.max(now, maintained.lastRunAt + minIntervalMillis);
+		long slot;
+		long next;
+		do {
+			next = nextSlot.get();
+			slot = Math.max(earliest, next);
+		} while (!nextSlot.compareAndSet(next, slot + minGapMillis));
+
+		try {
+			executor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					maintained.commits.set(0);
+					maintained.lastRunAt = System.currentTimeMillis();
+					try {
+						maintain(maintained.repo);
+					} catch (Exception e) {
+						failureCount.incrementAndGet();
+						lastFailure = e;
+					} finally {
+						maintained.scheduled.set(false);
+					}
+				}
+			}, slot - now, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// shutdown 된 뒤에는 예약하지 않는다
+			maintained.scheduled.set(false);
+		}
+	}
+
+	private static class Maintained {
+		final FileRepository repo;
+		final AtomicInteger commits = new AtomicInteger();
+		final AtomicBoolean scheduled = new AtomicBoolean();
+		volatile long lastRunAt;
+
+		Maintained(FileRepository repo) {
+			this.repo = repo;
+		}
+	}
+}
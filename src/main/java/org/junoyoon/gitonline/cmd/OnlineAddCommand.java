@@ -1,12 +1,15 @@
 package org.junoyoon.gitonline.cmd;
 
+import com.google.common.base.Charsets;
 import com.google.common.io.Files;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.eclipse.jgit.api.AddCommand;
 import org.eclipse.jgit.api.CommitCommand;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.internal.storage.file.FileRepository;
 import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.junoyoon.gitonline.model.Change;
 import org.junoyoon.gitonline.model.FileEntry;
 import org.eclipse.jgit.api.errors.JGitInternalException;
 import org.eclipse.jgit.dircache.*;
@@ -23,9 +26,9 @@ import org.eclipse.jgit.util.FS;
 import org.junoyoon.gitonline.model.User;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -35,8 +38,32 @@ import java.util.List;
  */
 public class OnlineAddCommand extends OnlineCommand {
 
+	private boolean useWorkTree = false;
+
+	/**
+	 * If {@code true}, files are written to the work tree and committed through the index file
+	 * like the original implementation. Otherwise (default) the new tree is built in memory
+	 * from the HEAD tree and the inserted blobs.
+	 */
+	public OnlineAddCommand setUseWorkTree(boolean useWorkTree) {
+		this.useWorkTree = useWorkTree;
+		return this;
+	}
+
 	@Override
 	public void call(FileRepository repo, List<FileEntry> fileEntries, User author, User committer, String message) {
+		if (useWorkTree) {
+			callWithWorkTree(repo, fileEntries, message);
+			return;
+		}
+		new OnlineChangesetCommand().setListener(getListener()).apply(repo, Change.puts(fileEntries), author, committer, message);
+	}
+
+	/*
+	 * 파일을 work tree 에 쓰고 index 를 통해 commit 한다.
+	 * author 와 committer 는 저장소 설정을 따른다.
+	 */
+	protected void callWithWorkTree(FileRepository repo, List<FileEntry> fileEntries, String message) {
 		List<File> prepare = null;
 		try {
 			final Git git = new Git(repo);
@@ -72,10 +99,18 @@ public class OnlineAddCommand extends OnlineCommand {
 				files.add(targetFile);
 				//noinspection ResultOfMethodCallIgnored
 				targetFile.getParentFile().mkdirs();
-				if (each.getContentBytes() != null) {
+				if (each.getContentStream() != null) {
+					FileOutputStream out = new FileOutputStream(targetFile);
+					try {
+						IOUtils.copyLarge(each.getContentStream(), out);
+					} finally {
+						IOUtils.closeQuietly(out);
+						IOUtils.closeQuietly(each.getContentStream());
+					}
+				} else if (each.getContentBytes() != null) {
 					Files.write(each.getContentBytes(), targetFile);
 				} else {
-					Files.write(each.getContent(), targetFile, Charset.forName("UTF-8"));
+					Files.write(each.getContent(), targetFile, Charsets.UTF_8);
 				}
 			}
 		} catch (IOException e) {
@@ -0,0 +1,191 @@
+package org.junoyoon.gitonline.cmd;
+
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.junoyoon.gitonline.metrics.CommandListener;
+import org.junoyoon.gitonline.model.Change;
+import org.junoyoon.gitonline.model.FileEntry;
+import org.junoyoon.gitonline.model.User;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Commit several puts, deletes and renames as a single commit.
+ * <p/>
+ * Every change is applied against the HEAD tree, so one path can be touched by only one change
+ * of a changeset.
+ */
+public class OnlineChangesetCommand extends OnlineCommand {
+
+	@Override
+	public OnlineChangesetCommand setListener(CommandListener listener) {
+		super.setListener(listener);
+		return this;
+	}
+
+	@Override
+	public void call(FileRepository repo, List<FileEntry> fileEntries, User author, User committer, String message) {
+		apply(repo, Change.puts(fileEntries), author, committer, message);
+	}
+
+	/**
+	 * Commit {@code changes} on top of HEAD. Concurrent writers to the same repository are
+	 * serialized by {@link RepositoryWriteQueue}.
+	 */
+	public RevCommit apply(FileRepository repo, List<Change> changes, User author, User committer, String message) {
+		return RepositoryWriteQueue.get(repo).commit(repo, changes, author, committer, message, getListener());
+	}
+
+	/*
+	 * PUT 의 내용을 blob 으로 저장한다. rebase 때문에 tree 를 다시 만들 때에도 blob 은 다시 저장하지 않는다.
+	 */
+	protected Map<Change, ObjectId> insertBlobs(ObjectInserter inserter, List<Change> changes) throws IOException {
+		Map<Change, ObjectId> blobs = new IdentityHashMap<Change, ObjectId>();
+		for (Change each : changes) {
+			if (each.getType() == Change.Type.PUT) {
+				blobs.put(each, insertBlob(inserter, each.getFileEntry()));
+			}
+		}
+		return blobs;
+	}
+
+	/*
+	 * headId 의 tree 에 changes 를 적용한 tree 를 저장하고 그 id 를 반환한다.
+	 * 바뀐 path 위의 tree 들만 다시 쓰고 나머지 subtree 는 그대로 재사용한다.
+	 * reader 는 inserter 가 아직 flush 하지 않은 tree 와 commit 을 읽을 수 있어야 한다.
+	 */
+	protected ObjectId writeTree(ObjectReader reader, ObjectInserter inserter, ObjectId headId, List<Change> changes,
+								 Map<Change, ObjectId> blobs) throws IOException {
+		RevWalk revWalk = new RevWalk(reader);
+		try {
+			TreeRewriter rewriter = new TreeRewriter(reader, headId == null ? null : revWalk.parseTree(headId));
+			Set<String> touched = new HashSet<String>();
+			// 앞에서 지운 path 에는 다시 파일을 둘 수 있다. 디렉토리를 파일로 바꿀 때 쓴다.
+			Set<String> deleted = new HashSet<String>();
+			for (Change each : changes) {
+				switch (each.getType()) {
+					case PUT:
+						touchOrReplace(touched, deleted, each.getPath());
+						rewriter.put(each.getPath(), each.getMode(), blobs.get(each));
+						break;
+					case DELETE:
+						touch(touched, each.getPath());
+						deleted.add(each.getPath());
+						rewriter.delete(each.getPath());
+						break;
+					case RENAME:
+						touch(touched, each.getOldPath());
+						touchOrReplace(touched, deleted, each.getPath());
+						rename(rewriter, each);
+						break;
+				}
+			}
+			return rewriter.writeTo(inserter);
+		} finally {
+			revWalk.dispose();
+		}
+	}
+
+	/*
+	 * 디렉토리는 하위 tree 의 id 를 그대로 옮기므로 그 안의 파일 수와 관계없이 비용이 같다.
+	 */
+	private void rename(TreeRewriter rewriter, Change change) throws IOException {
+		TreeRewriter.Entry source = rewriter.find(change.getOldPath());
+		if (source == null) {
+			throw new IllegalArgumentException("No such file or directory to rename : " + change.getOldPath());
+		}
+		if (source.isTree() && change.getMode() != null) {
+			throw new IllegalArgumentException("Mode can be changed only when renaming a file : " + change.getOldPath());
+		}
+		rewriter.delete(change.getOldPath());
+		rewriter.put(change.getPath(), change.getMode() != null ? change.getMode() : source.mode, source.objectId);
+	}
+
+	/*
+	 * changes 가 건드리는 path 들
+	 */
+	protected Set<String> touchedPaths(List<Change> changes) {
+		Set<String> paths = new HashSet<String>();
+		for (Change each : changes) {
+			paths.add(each.getPath());
+			if (each.getOldPath() != null) {
+				paths.add(each.getOldPath());
+			}
+		}
+		return paths;
+	}
+
+	/*
+	 * from 과 to 사이에 바뀐 파일들의 path. from 이 null 이면 to 의 모든 파일이다.
+	 */
+	protected Set<String> changedPaths(Repository repo, ObjectId from, ObjectId to) throws IOException {
+		Set<String> paths = new HashSet<String>();
+		ObjectReader reader = repo.newObjectReader();
+		RevWalk revWalk = new RevWalk(reader);
+		TreeWalk treeWalk = new TreeWalk(reader);
+		try {
+			if (from == null) {
+				treeWalk.addTree(new EmptyTreeIterator());
+			} else {
+				treeWalk.addTree(revWalk.parseTree(from));
+			}
+			treeWalk.addTree(revWalk.parseTree(to));
+			treeWalk.setRecursive(true);
+			treeWalk.setFilter(TreeFilter.ANY_DIFF);
+			while (treeWalk.next()) {
+				paths.add(treeWalk.getPathString());
+			}
+		} finally {
+			treeWalk.release();
+			revWalk.dispose();
+			reader.release();
+		}
+		return paths;
+	}
+
+	/*
+	 * touched 와 changed 가 같은 path 를 가지거나, 한쪽이 다른 쪽의 상위 디렉토리이면 충돌이다.
+	 */
+	protected Set<String> conflicts(Set<String> touched, Set<String> changed) {
+		Set<String> conflicts = new TreeSet<String>();
+		for (String path : touched) {
+			if (changed.contains(path)) {
+				conflicts.add(path);
+				continue;
+			}
+			for (String each : changed) {
+				if (each.startsWith(path + "/") || path.startsWith(each + "/")) {
+					conflicts.add(path);
+					break;
+				}
+			}
+		}
+		return conflicts;
+	}
+
+	private void touchOrReplace(Set<String> touched, Set<String> deleted, String path) {
+		if (!deleted.remove(path)) {
+			touch(touched, path);
+		}
+	}
+
+	private void touch(Set<String> touched, String path) {
+		if (!touched.add(path)) {
+			throw new IllegalArgumentException("Path is changed more than once in a changeset : " + path);
+		}
+	}
+}
@@ -2,6 +2,7 @@ package org.junoyoon.gitonline.cmd;
 
 import com.google.common.io.Files;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.eclipse.jgit.api.AddCommand;
 import org.eclipse.jgit.api.CommitCommand;
 import org.eclipse.jgit.api.Git;
@@ -9,6 +10,8 @@ import org.eclipse.jgit.api.errors.*;
 import org.eclipse.jgit.internal.storage.file.FileRepository;
 import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
 import org.eclipse.jgit.util.FS;
+import org.junoyoon.gitonline.metrics.CommandListener;
+import org.junoyoon.gitonline.metrics.CommandMetrics;
 import org.junoyoon.gitonline.model.FileEntry;
 import org.junoyoon.gitonline.model.User;
 import org.eclipse.jgit.dircache.DirCache;
@@ -20,7 +23,9 @@ import org.junoyoon.gitonline.model.User;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.text.MessageFormat;
+import java.util.Collections;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
@@ -30,6 +35,21 @@ import static org.apache.commons.io.FileUtils.deleteQuietly;
 
 public abstract class OnlineCommand {
 
+	private CommandListener listener = CommandMetrics.getDefault();
+
+	/**
+	 * Report the timings and counts of this command to {@code listener} instead of
+	 * {@link CommandMetrics#getDefault()}.
+	 */
+	public OnlineCommand setListener(CommandListener listener) {
+		this.listener = listener;
+		return this;
+	}
+
+	public CommandListener getListener() {
+		return listener;
+	}
+
 	protected Collection<String> convert(List<FileEntry> fileEntries) {
 		List<String> paths = newArrayList();
 		for (FileEntry each : fileEntries) {
@@ -38,6 +58,116 @@ public abstract class OnlineCommand {
 		return paths;
 	}
 
+	/*
+	 * stream 으로 주어진 내용은 메모리에 모두 올리지 않고 그대로 inserter 로 넘긴다.
+	 */
+	protected ObjectId insertBlob(ObjectInserter inserter, FileEntry fileEntry) throws IOException {
+		InputStream in = fileEntry.getContentStream();
+		if (in != null) {
+			try {
+				return inserter.insert(Constants.OBJ_BLOB, fileEntry.getContentLength(), in);
+			} finally {
+				IOUtils.closeQuietly(in);
+			}
+		}
+		byte[] content = fileEntry.getContentBytes();
+		if (content == null) {
+			content = Constants.encode(fileEntry.getContent());
+		}
+		return inserter.insert(Constants.OBJ_BLOB, content);
+	}
+
+	protected PersonIdent toPersonIdent(Repository repo, User user) {
+		if (user == null) {
+			return new PersonIdent(repo);
+		}
+		return new PersonIdent(user.getUserId(), user.getEmail());
+	}
+
+	/*
+	 * 주어진 tree 를 가지는 commit 을 만들고 HEAD 를 그 commit 으로 옮긴다.
+	 * headId 가 null 이면 initial commit 으로 만든다.
+	 */
+	protected RevCommit commit(Repository repo, ObjectInserter odi, ObjectId treeId, ObjectId headId,
+							   PersonIdent author, PersonIdent committer, String message) throws IOException, GitAPIException {
+		ObjectId commitId = insertCommit(odi, treeId, headId, author, committer, message);
+		odi.flush();
+		return updateHead(repo, commitId, headId);
+	}
+
+	protected ObjectId insertCommit(ObjectInserter odi, ObjectId treeId, ObjectId headId,
+									PersonIdent author, PersonIdent committer, String message) throws IOException {
+		List<ObjectId> parents = headId == null ? Collections.<ObjectId>emptyList() : Collections.singletonList(headId);
+
+		// Create a Commit object, populate it and write it
+		CommitBuilder commit = new CommitBuilder();
+		commit.setCommitter(committer);
+		commit.setAuthor(author);
+		commit.setMessage(message);
+
+		commit.setParentIds(parents);
+		commit.setTreeId(treeId);
+		return odi.insert(commit);
+	}
+
+	/*
+	 * HEAD 가 아직 headId 일 때만 commitId 로 옮긴다. commitId 는 이미 flush 되어 있어야 한다.
+	 * 그 사이 다른 writer 가 HEAD 를 옮겼으면 ConcurrentRefUpdateException 이 발생한다.
+	 */
+	protected RevCommit updateHead(Repository repo, ObjectId commitId, ObjectId headId) throws IOException, GitAPIException {
+		RevWalk rw = new RevWalk(repo);
+		try {
+			Ref head = repo.getRef(Constants.HEAD);
+			if (head == null)
+				throw new NoHeadException(
+						JGitText.get().commitOnRepoWithoutHEADCurrentlyNotSupported);
+
+			RepositoryState state = repo.getRepositoryState();
+			RevCommit revCommit = rw.parseCommit(commitId);
+			RefUpdate ru = repo.updateRef(Constants.HEAD);
+			ru.setNewObjectId(commitId);
+			String prefix = headId == null ? "commit (initial): " //$NON-NLS-1$
+					: "commit: "; //$NON-NLS-1$
+			ru.setRefLogMessage(
+					prefix + revCommit.getShortMessage(), false);
+			if (headId != null)
+				ru.setExpectedOldObjectId(headId);
+			else
+				ru.setExpectedOldObjectId(ObjectId.zeroId());
+			RefUpdate.Result rc = ru.update(rw);
+			switch (rc) {
+				case NEW:
+				case FORCED:
+				case FAST_FORWARD: {
+					if (state == RepositoryState.MERGING_RESOLVED) {
+						// Commit was successful. Now delete the files
+						// used for merge commits
+						repo.writeMergeCommitMsg(null);
+						repo.writeMergeHeads(null);
+					} else if (state == RepositoryState.CHERRY_PICKING_RESOLVED) {
+						repo.writeMergeCommitMsg(null);
+						repo.writeCherryPickHead(null);
+					} else if (state == RepositoryState.REVERTING_RESOLVED) {
+						repo.writeMergeCommitMsg(null);
+						repo.writeRevertHead(null);
+					}
+					return revCommit;
+				}
+				case REJECTED:
+				case LOCK_FAILURE:
+					throw new ConcurrentRefUpdateException(
+							JGitText.get().couldNotLockHEAD, ru.getRef(),
+							rc);
+				default:
+					throw new JGitInternalException(MessageFormat.format(
+							JGitText.get().updatingRefFailed,
+							Constants.HEAD, commitId.toString(), rc));
+			}
+		} finally {
+			rw.dispose();
+		}
+	}
+
 	abstract public void call(FileRepository repo, List<FileEntry> fileEntries, User author, User committer, String message);
 
 }
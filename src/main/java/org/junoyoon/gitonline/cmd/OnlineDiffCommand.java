@@ -0,0 +1,403 @@
+package org.junoyoon.gitonline.cmd;
+
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.diff.DiffConfig;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffEntry.ChangeType;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.diff.RenameDetector;
+import org.eclipse.jgit.errors.RevWalkException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.junoyoon.gitonline.metrics.CommandListener;
+import org.junoyoon.gitonline.metrics.CommandMetrics;
+import org.junoyoon.gitonline.metrics.Phase;
+import org.junoyoon.gitonline.model.DiffHunk;
+import org.junoyoon.gitonline.model.FileDiff;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Compare two revisions, or a commit with its first parent, under a path.
+ * <p/>
+ * The two trees are walked together and a subtree whose object id is the same on both sides is
+ * skipped without being read, so the cost follows the size of the change rather than the size of
+ * the tree. The changed files are produced one at a time while the walk goes on, and their contents
+ * are read and compared only when their hunks are asked for. A blob larger than
+ * {@code maxBlobSize} is never read, and a binary one, found by {@link OnlineLsCommand#BINARY_SNIFF_BYTES}
+ * bytes of its start, gets no hunks.
+ */
+public class OnlineDiffCommand {
+
+	public static final int DEFAULT_CONTEXT_LINES = 3;
+
+	public static final int DEFAULT_MAX_BLOB_SIZE = 1024 * 1024;
+
+	private Repository repository;
+	private RepositoryManager repositoryManager;
+	private CommandListener listener = CommandMetrics.getDefault();
+	private int contextLines = DEFAULT_CONTEXT_LINES;
+	private int maxBlobSize = DEFAULT_MAX_BLOB_SIZE;
+	private boolean detectRenames;
+	private DiffAlgorithm diffAlgorithm = DiffAlgorithm.getAlgorithm(DiffAlgorithm.SupportedAlgorithm.HISTOGRAM);
+
+	public OnlineDiffCommand(Repository repository) {
+		this.repository = repository;
+	}
+
+	/**
+	 * Borrow the walks from {@code repositoryManager} instead of creating new ones for every call.
+	 */
+	public OnlineDiffCommand setRepositoryManager(RepositoryManager repositoryManager) {
+		this.repositoryManager = repositoryManager;
+		return this;
+	}
+
+	public OnlineDiffCommand setListener(CommandListener listener) {
+		this.listener = listener;
+		return this;
+	}
+
+	/**
+	 * @param contextLines number of unchanged lines shown around the changed lines of a hunk
+	 */
+	public OnlineDiffCommand setContextLines(int contextLines) {
+		this.contextLines = contextLines;
+		return this;
+	}
+
+	/**
+	 * @param maxBlobSize files larger than this on either side are reported as too large, and not read
+	 */
+	public OnlineDiffCommand setMaxBlobSize(int maxBlobSize) {
+		this.maxBlobSize = maxBlobSize;
+		return this;
+	}
+
+	/**
+	 * If {@code true}, a deleted and an added file with similar contents are reported as a rename.
+	 * Renames can only be found among all the changed files, so they are walked before the first one
+	 * is returned.
+	 */
+	public OnlineDiffCommand setDetectRenames(boolean detectRenames) {
+		this.detectRenames = detectRenames;
+		return this;
+	}
+
+	public OnlineDiffCommand setDiffAlgorithm(DiffAlgorithm diffAlgorithm) {
+		this.diffAlgorithm = diffAlgorithm;
+		return this;
+	}
+
+	/**
+	 * Compare every changed file under {@code path}, with its hunks.
+	 *
+	 * @return the changed files, or {@code null} if a revision does not exist
+	 * @see #open(String, String, String)
+	 */
+	public List<FileDiff> getDiff(String oldRevision, String newRevision, String path) throws IOException {
+		Diff diff = open(oldRevision, newRevision, path);
+		if (diff == null) {
+			return null;
+		}
+		try {
+			List<FileDiff> result = new ArrayList<FileDiff>();
+			while (diff.hasNext()) {
+				FileDiff each = diff.next();
+				diff.compare(each);
+				result.add(each);
+			}
+			return result;
+		} finally {
+			diff.close();
+		}
+	}
+
+	/**
+	 * Start comparing {@code oldRevision} with {@code newRevision}. The trees are read only as the
+	 * returned iterator is advanced. The diff has to be closed.
+	 *
+	 * @param oldRevision branch, tag, commit or tree id. {@code null} means the first parent of
+	 *                    {@code newRevision}, or an empty tree if it has none.
+	 * @param newRevision branch, tag, commit or tree id. {@code null} means HEAD.
+	 * @param path        file or directory to compare. An empty path compares the whole trees.
+	 * @return the diff, or {@code null} if a revision does not exist
+	 */
+	public Diff open(String oldRevision, String newRevision, String path) throws IOException {
+		RevWalk revWalk = borrowWalk();
+		try {
+			long started = System.nanoTime();
+			ObjectId newId = repository.resolve(newRevision == null ? Constants.HEAD : newRevision);
+			ObjectId oldId = oldRevision == null ? null : repository.resolve(oldRevision);
+			if (newId == null || (oldRevision != null && oldId == null)) {
+				release(revWalk);
+				return null;
+			}
+			RevTree newTree;
+			RevTree oldTree = null;
+			if (oldRevision == null) {
+				RevCommit commit = revWalk.parseCommit(newId);
+				newTree = commit.getTree();
+				if (commit.getParentCount() > 0) {
+					oldTree = revWalk.parseCommit(commit.getParent(0)).getTree();
+				}
+			} else {
+				newTree = revWalk.parseTree(newId);
+				oldTree = revWalk.parseTree(oldId);
+			}
+			listener.onPhase(Phase.RESOLVE, System.nanoTime() - started);
+			return new Diff(revWalk, oldTree, newTree, path == null ? "" : path);
+		} catch (IOException e) {
+			release(revWalk);
+			throw e;
+		} catch (RuntimeException e) {
+			release(revWalk);
+			throw e;
+		}
+	}
+
+	/*
+	 * repositoryManager 가 있으면 walk 를 빌려오고, 없으면 새로 만든다
+	 */
+	private RevWalk borrowWalk() {
+		if (repositoryManager == null) {
+			return new RevWalk(repository);
+		}
+		return repositoryManager.borrowRevWalk(repository);
+	}
+
+	private void release(RevWalk revWalk) {
+		if (repositoryManager == null) {
+			revWalk.release();
+		} else {
+			repositoryManager.release(repository, revWalk);
+		}
+	}
+
+	/**
+	 * The changed files of two trees being compared. A failure to read the repository is thrown as
+	 * a {@link RevWalkException}, like {@link OnlineLogCommand.Log} does.
+	 */
+	public class Diff implements Iterator<FileDiff>, Closeable {
+
+		private final RevWalk revWalk;
+		private final TreeWalk treeWalk;
+		private Iterator<DiffEntry> renamed;
+		private FileDiff next;
+		private boolean done;
+		private long walkNanos;
+
+		private Diff(RevWalk revWalk, RevTree oldTree, RevTree newTree, String path) throws IOException {
+			this.revWalk = revWalk;
+			this.treeWalk = new TreeWalk(revWalk.getObjectReader());
+			if (oldTree == null) {
+				treeWalk.addTree(new EmptyTreeIterator());
+			} else {
+				treeWalk.addTree(oldTree);
+			}
+			treeWalk.addTree(newTree);
+			treeWalk.setRecursive(true);
+			// ANY_DIFF 는 양쪽 id 가 같은 subtree 에 들어가지 않는다
+			treeWalk.setFilter(path.isEmpty() ? TreeFilter.ANY_DIFF
+					: AndTreeFilter.create(PathFilter.create(path), TreeFilter.ANY_DIFF));
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (next != null) {
+				return true;
+			}
+			if (done) {
+				return false;
+			}
+			long started = System.nanoTime();
+			try {
+				next = detectRenames ? nextRenamed() : nextChanged();
+				done = next == null;
+				return !done;
+			} catch (IOException e) {
+				throw new RevWalkException(e);
+			} finally {
+				walkNanos += System.nanoTime() - started;
+			}
+		}
+
+		@Override
+		public FileDiff next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			FileDiff result = next;
+			next = null;
+			return result;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		/**
+		 * Read and compare the contents of {@code fileDiff}, unless they are binary or too large, and
+		 * fill its hunks.
+		 *
+		 * @return the hunks, or {@code null} if the contents were not compared
+		 */
+		public List<DiffHunk> compare(FileDiff fileDiff) throws IOException {
+			if (fileDiff.getHunks() != null || fileDiff.isBinary() || fileDiff.isTooLarge()
+					|| fileDiff.getOldMode() == FileMode.GITLINK || fileDiff.getNewMode() == FileMode.GITLINK) {
+				return fileDiff.getHunks();
+			}
+			long started = System.nanoTime();
+			try {
+				ObjectReader reader = revWalk.getObjectReader();
+				if (getSize(reader, fileDiff.getOldId()) > maxBlobSize || getSize(reader, fileDiff.getNewId()) > maxBlobSize) {
+					fileDiff.setTooLarge(true);
+					return null;
+				}
+				byte[] oldRaw = read(reader, fileDiff.getOldId());
+				byte[] newRaw = read(reader, fileDiff.getNewId());
+				if (isBinary(oldRaw) || isBinary(newRaw)) {
+					fileDiff.setBinary(true);
+					return null;
+				}
+				RawText oldText = new RawText(oldRaw);
+				RawText newText = new RawText(newRaw);
+				EditList edits = diffAlgorithm.diff(RawTextComparator.DEFAULT, oldText, newText);
+				fileDiff.setHunks(toHunks(oldText, newText, edits));
+				return fileDiff.getHunks();
+			} finally {
+				listener.onPhase(Phase.DIFF, System.nanoTime() - started);
+			}
+		}
+
+		@Override
+		public void close() {
+			listener.onPhase(Phase.TREE_WALK, walkNanos);
+			treeWalk.release();
+			release(revWalk);
+		}
+
+		private FileDiff nextChanged() throws IOException {
+			if (!treeWalk.next()) {
+				return null;
+			}
+			FileMode oldMode = treeWalk.getFileMode(0);
+			FileMode newMode = treeWalk.getFileMode(1);
+			String path = treeWalk.getPathString();
+			ChangeType changeType;
+			if (oldMode == FileMode.MISSING) {
+				changeType = ChangeType.ADD;
+			} else if (newMode == FileMode.MISSING) {
+				changeType = ChangeType.DELETE;
+			} else {
+				changeType = ChangeType.MODIFY;
+			}
+			return new FileDiff(changeType, changeType == ChangeType.ADD ? null : path,
+					changeType == ChangeType.DELETE ? null : path, oldMode, newMode,
+					treeWalk.getObjectId(0), treeWalk.getObjectId(1));
+		}
+
+		/*
+		 * rename 은 바뀐 파일 전체에서 찾아야 하므로 처음 부를 때 walk 를 끝까지 한다
+		 */
+		private FileDiff nextRenamed() throws IOException {
+			if (renamed == null) {
+				RenameDetector renameDetector = new RenameDetector(revWalk.getObjectReader(),
+						repository.getConfig().get(DiffConfig.KEY));
+				renameDetector.addAll(DiffEntry.scan(treeWalk));
+				renamed = renameDetector.compute(revWalk.getObjectReader(), NullProgressMonitor.INSTANCE).iterator();
+			}
+			if (!renamed.hasNext()) {
+				return null;
+			}
+			DiffEntry entry = renamed.next();
+			return new FileDiff(entry.getChangeType(),
+					entry.getChangeType() == ChangeType.ADD ? null : entry.getOldPath(),
+					entry.getChangeType() == ChangeType.DELETE ? null : entry.getNewPath(),
+					entry.getOldMode(), entry.getNewMode(), entry.getOldId().toObjectId(), entry.getNewId().toObjectId());
+		}
+
+		private long getSize(ObjectReader reader, ObjectId blobId) throws IOException {
+			if (ObjectId.zeroId().equals(blobId)) {
+				return 0;
+			}
+			return reader.getObjectSize(blobId, Constants.OBJ_BLOB);
+		}
+
+		private byte[] read(ObjectReader reader, ObjectId blobId) throws IOException {
+			if (ObjectId.zeroId().equals(blobId)) {
+				return new byte[0];
+			}
+			listener.onObjectsRead(1);
+			return reader.open(blobId, Constants.OBJ_BLOB).getCachedBytes(maxBlobSize);
+		}
+
+		private boolean isBinary(byte[] raw) {
+			return RawText.isBinary(raw, Math.min(raw.length, OnlineLsCommand.BINARY_SNIFF_BYTES));
+		}
+	}
+
+	/*
+	 * 사이의 unchanged line 이 context 의 두 배 이하인 edit 들은 한 hunk 로 묶는다
+	 */
+	private List<DiffHunk> toHunks(RawText oldText, RawText newText, EditList edits) {
+		List<DiffHunk> hunks = new ArrayList<DiffHunk>();
+		int first = 0;
+		while (first < edits.size()) {
+			int last = first;
+			while (last + 1 < edits.size()
+					&& edits.get(last + 1).getBeginA() - edits.get(last).getEndA() <= 2 * contextLines) {
+				last++;
+			}
+			int oldStart = Math.max(0, edits.get(first).getBeginA() - contextLines);
+			int newStart = Math.max(0, edits.get(first).getBeginB() - contextLines);
+			int oldEnd = Math.min(oldText.size(), edits.get(last).getEndA() + contextLines);
+			int newEnd = Math.min(newText.size(), edits.get(last).getEndB() + contextLines);
+
+			List<String> lines = new ArrayList<String>();
+			int oldLine = oldStart;
+			for (Edit each : edits.subList(first, last + 1)) {
+				for (; oldLine < each.getBeginA(); oldLine++) {
+					lines.add(" " + oldText.getString(oldLine));
+				}
+				for (; oldLine < each.getEndA(); oldLine++) {
+					lines.add("-" + oldText.getString(oldLine));
+				}
+				for (int newLine = each.getBeginB(); newLine < each.getEndB(); newLine++) {
+					lines.add("+" + newText.getString(newLine));
+				}
+			}
+			for (; oldLine < oldEnd; oldLine++) {
+				lines.add(" " + oldText.getString(oldLine));
+			}
+
+			int oldLines = oldEnd - oldStart;
+			int newLines = newEnd - newStart;
+			hunks.add(new DiffHunk(oldLines == 0 ? oldStart : oldStart + 1, oldLines,
+					newLines == 0 ? newStart : newStart + 1, newLines, lines));
+			first = last + 1;
+		}
+		return hunks;
+	}
+}
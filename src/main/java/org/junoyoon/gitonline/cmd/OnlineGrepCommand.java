@@ -0,0 +1,374 @@
+package org.junoyoon.gitonline.cmd;
+
+import com.google.common.io.ByteStreams;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.junoyoon.gitonline.metrics.CommandListener;
+import org.junoyoon.gitonline.metrics.CommandMetrics;
+import org.junoyoon.gitonline.metrics.Phase;
+import org.junoyoon.gitonline.model.GrepMatch;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Search the contents of the files under a path at a revision for a literal or a regular expression.
+ * <p/>
+ * The files are listed first, and files sharing a blob are grouped, so identical contents are
+ * scanned once and their matches are reported for every path. The blobs are split among the workers
+ * of {@code searchPool}, each with its own reader, and streamed a line at a time, so a large blob is
+ * inflated while it is scanned and never held in memory. A file whose first
+ * {@link OnlineLsCommand#BINARY_SNIFF_BYTES} bytes look binary is skipped. Once {@code limit}
+ * matches are found, the workers stop at the next line.
+ */
+public class OnlineGrepCommand {
+
+	public static final int DEFAULT_MAX_LINE_LENGTH = 4096;
+
+	private static final ForkJoinPool DEFAULT_SEARCH_POOL = new ForkJoinPool();
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private Repository repository;
+	private RepositoryManager repositoryManager;
+	private CommandListener listener = CommandMetrics.getDefault();
+	private ForkJoinPool searchPool = DEFAULT_SEARCH_POOL;
+	private int parallelThreshold = 8;
+	private boolean regex;
+	private boolean ignoreCase;
+	private int maxLineLength = DEFAULT_MAX_LINE_LENGTH;
+
+	public OnlineGrepCommand(Repository repository) {
+		this.repository = repository;
+	}
+
+	/**
+	 * Borrow the readers and walks from {@code repositoryManager} instead of creating new ones for
+	 * every call.
+	 */
+	public OnlineGrepCommand setRepositoryManager(RepositoryManager repositoryManager) {
+		this.repositoryManager = repositoryManager;
+		return this;
+	}
+
+	public OnlineGrepCommand setListener(CommandListener listener) {
+		this.listener = listener;
+		return this;
+	}
+
+	/**
+	 * Blobs are split into subsets of at most {@code parallelThreshold}, which are scanned on
+	 * {@code searchPool} at the same time. A {@code null} pool scans them one by one on the caller
+	 * thread.
+	 */
+	public OnlineGrepCommand setSearchPool(ForkJoinPool searchPool, int parallelThreshold) {
+		this.searchPool = searchPool;
+		this.parallelThreshold = parallelThreshold;
+		return this;
+	}
+
+	/**
+	 * If {@code true}, the pattern is a {@link Pattern} found anywhere in a line. Otherwise it is a
+	 * literal.
+	 */
+	public OnlineGrepCommand setRegex(boolean regex) {
+		this.regex = regex;
+		return this;
+	}
+
+	public OnlineGrepCommand setIgnoreCase(boolean ignoreCase) {
+		this.ignoreCase = ignoreCase;
+		return this;
+	}
+
+	/**
+	 * @param maxLineLength longer lines are cut to this many bytes before they are matched, which
+	 *                      bounds the memory of a minified file or a file without line breaks
+	 */
+	public OnlineGrepCommand setMaxLineLength(int maxLineLength) {
+		this.maxLineLength = maxLineLength;
+		return this;
+	}
+
+	/**
+	 * Find the lines matching {@code pattern} in the files under {@code path} at {@code revision}.
+	 * <p/>
+	 * With a limit, the search stops once it has found that many matches. The workers scan in
+	 * parallel, so which matches they are is not fixed, only that there are no more than
+	 * {@code limit}; a result of {@code limit} matches may leave some out.
+	 *
+	 * @param revision branch, tag or commit id. {@code null} means HEAD
+	 * @param path     file or directory. An empty path searches the whole tree.
+	 * @param limit    maximum number of matches. Zero or less finds every match.
+	 * @return the matches sorted by path and line, or {@code null} if {@code revision} or
+	 * {@code path} does not exist
+	 * @throws java.util.regex.PatternSyntaxException if {@code pattern} is not a valid regular expression
+	 */
+	public List<GrepMatch> grep(String revision, String path, String pattern, int limit) throws IOException {
+		Search search = new Search(Pattern.compile(pattern, (regex ? 0 : Pattern.LITERAL)
+				| (ignoreCase ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0)), limit);
+		Map<ObjectId, List<String>> blobs;
+		RevWalk revWalk = borrowWalk();
+		try {
+			long started = System.nanoTime();
+			ObjectId commitId = repository.resolve(revision == null ? Constants.HEAD : revision);
+			if (commitId == null) {
+				return null;
+			}
+			RevCommit commit = revWalk.parseCommit(commitId);
+			listener.onPhase(Phase.RESOLVE, System.nanoTime() - started);
+
+			started = System.nanoTime();
+			blobs = listBlobs(revWalk.getObjectReader(), commit, path == null ? "" : path);
+			listener.onPhase(Phase.TREE_WALK, System.nanoTime() - started);
+			if (blobs.isEmpty() && path != null && !path.isEmpty()) {
+				return null;
+			}
+
+			started = System.nanoTime();
+			List<Map.Entry<ObjectId, List<String>>> entries = new ArrayList<Map.Entry<ObjectId, List<String>>>(blobs.entrySet());
+			if (searchPool == null || entries.size() <= parallelThreshold) {
+				scanBlobs(revWalk.getObjectReader(), entries, search);
+			} else {
+				try {
+					searchPool.invoke(new ScanTask(entries, search));
+				} catch (RuntimeException e) {
+					IOException cause = OnlineLsCommand.findIOException(e);
+					if (cause != null) {
+						throw cause;
+					}
+					throw e;
+				}
+			}
+			listener.onPhase(Phase.SEARCH, System.nanoTime() - started);
+		} finally {
+			release(revWalk);
+		}
+
+		List<GrepMatch> result = new ArrayList<GrepMatch>(search.matches);
+		Collections.sort(result, new Comparator<GrepMatch>() {
+			@Override
+			public int compare(GrepMatch o1, GrepMatch o2) {
+				int compared = o1.getPath().compareTo(o2.getPath());
+				return compared != 0 ? compared : o1.getLineNumber() - o2.getLineNumber();
+			}
+		});
+		return result;
+	}
+
+	/*
+	 * 같은 blob 을 가진 path 들을 묶는다. gitlink 는 이 저장소의 blob 이 아니므로 뺀다.
+	 */
+	private Map<ObjectId, List<String>> listBlobs(ObjectReader reader, RevCommit commit, String path) throws IOException {
+		Map<ObjectId, List<String>> blobs = new LinkedHashMap<ObjectId, List<String>>();
+		TreeWalk treeWalk = new TreeWalk(reader);
+		try {
+			treeWalk.addTree(commit.getTree());
+			treeWalk.setRecursive(true);
+			if (!path.isEmpty()) {
+				treeWalk.setFilter(PathFilter.create(path));
+			}
+			while (treeWalk.next()) {
+				if (treeWalk.getFileMode(0) == FileMode.GITLINK) {
+					continue;
+				}
+				ObjectId blobId = treeWalk.getObjectId(0);
+				List<String> paths = blobs.get(blobId);
+				if (paths == null) {
+					paths = new ArrayList<String>(1);
+					blobs.put(blobId, paths);
+				}
+				paths.add(treeWalk.getPathString());
+			}
+		} finally {
+			treeWalk.release();
+		}
+		return blobs;
+	}
+
+	private void scanBlobs(ObjectReader reader, List<Map.Entry<ObjectId, List<String>>> blobs, Search search) throws IOException {
+		for (Map.Entry<ObjectId, List<String>> each : blobs) {
+			if (search.isDone()) {
+				return;
+			}
+			listener.onObjectsRead(1);
+			InputStream in = reader.open(each.getKey(), Constants.OBJ_BLOB).openStream();
+			try {
+				scan(new BufferedInputStream(in), each.getKey(), each.getValue(), search);
+			} finally {
+				in.close();
+			}
+		}
+	}
+
+	/*
+	 * binary 인지 앞부분만 보고, 아니면 한 줄씩 읽는다. 한 줄은 maxLineLength 까지만 담는다.
+	 */
+	private void scan(InputStream in, ObjectId blobId, List<String> paths, Search search) throws IOException {
+		byte[] prefix = new byte[OnlineLsCommand.BINARY_SNIFF_BYTES];
+		int prefixLength = ByteStreams.read(in, prefix, 0, prefix.length);
+		if (RawText.isBinary(prefix, prefixLength)) {
+			return;
+		}
+		InputStream content = new SequenceInputStream(new ByteArrayInputStream(prefix, 0, prefixLength), in);
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int lineNumber = 0;
+		int read;
+		while ((read = content.read(buffer)) > 0) {
+			int start = 0;
+			for (int i = 0; i < read; i++) {
+				if (buffer[i] == '\n') {
+					append(line, buffer, start, i - start);
+					match(line, ++lineNumber, blobId, paths, search);
+					if (search.isDone()) {
+						return;
+					}
+					line.reset();
+					start = i + 1;
+				}
+			}
+			append(line, buffer, start, read - start);
+		}
+		if (line.size() > 0) {
+			match(line, ++lineNumber, blobId, paths, search);
+		}
+	}
+
+	private void append(ByteArrayOutputStream line, byte[] buffer, int offset, int length) {
+		int room = maxLineLength - line.size();
+		if (room > 0) {
+			line.write(buffer, offset, Math.min(room, length));
+		}
+	}
+
+	private void match(ByteArrayOutputStream line, int lineNumber, ObjectId blobId, List<String> paths, Search search) {
+		String text = new String(line.toByteArray(), UTF_8);
+		if (text.endsWith("\r")) {
+			text = text.substring(0, text.length() - 1);
+		}
+		Matcher matcher = search.pattern.matcher(text);
+		if (!matcher.find()) {
+			return;
+		}
+		for (String each : paths) {
+			search.add(new GrepMatch(each, blobId, lineNumber, text));
+		}
+	}
+
+	/*
+	 * repositoryManager 가 있으면 walk 를 빌려오고, 없으면 새로 만든다
+	 */
+	private RevWalk borrowWalk() {
+		if (repositoryManager == null) {
+			return new RevWalk(repository);
+		}
+		return repositoryManager.borrowRevWalk(repository);
+	}
+
+	private void release(RevWalk revWalk) {
+		if (repositoryManager == null) {
+			revWalk.release();
+		} else {
+			repositoryManager.release(repository, revWalk);
+		}
+	}
+
+	private ObjectReader borrowReader() {
+		if (repositoryManager == null) {
+			return repository.newObjectReader();
+		}
+		return repositoryManager.borrowReader(repository);
+	}
+
+	private void release(ObjectReader reader) {
+		if (repositoryManager == null) {
+			reader.release();
+		} else {
+			repositoryManager.release(repository, reader);
+		}
+	}
+
+	/*
+	 * worker 들이 함께 쓰는 검색 상태. limit 을 넘는 match 는 버린다.
+	 */
+	private static class Search {
+		final Pattern pattern;
+		final int limit;
+		final AtomicInteger found = new AtomicInteger();
+		final Queue<GrepMatch> matches = new ConcurrentLinkedQueue<GrepMatch>();
+
+		Search(Pattern pattern, int limit) {
+			this.pattern = pattern;
+			this.limit = limit;
+		}
+
+		boolean isDone() {
+			return limit > 0 && found.get() >= limit;
+		}
+
+		void add(GrepMatch match) {
+			if (limit <= 0 || found.incrementAndGet() <= limit) {
+				matches.add(match);
+			}
+		}
+	}
+
+	private class ScanTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final List<Map.Entry<ObjectId, List<String>>> subset;
+		private final Search search;
+
+		ScanTask(List<Map.Entry<ObjectId, List<String>>> subset, Search search) {
+			this.subset = subset;
+			this.search = search;
+		}
+
+		@Override
+		protected void compute() {
+			if (search.isDone()) {
+				return;
+			}
+			if (subset.size() <= parallelThreshold) {
+				ObjectReader reader = borrowReader();
+				try {
+					scanBlobs(reader, subset, search);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				} finally {
+					release(reader);
+				}
+				return;
+			}
+			int half = subset.size() / 2;
+			invokeAll(new ScanTask(subset.subList(0, half), search),
+					new ScanTask(subset.subList(half, subset.size()), search));
+		}
+	}
+}
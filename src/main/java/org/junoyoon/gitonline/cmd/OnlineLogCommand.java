@@ -0,0 +1,402 @@
+package org.junoyoon.gitonline.cmd;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import org.eclipse.jgit.diff.DiffConfig;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.RenameDetector;
+import org.eclipse.jgit.errors.RevWalkException;
+import org.eclipse.jgit.errors.StopWalkException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevFlag;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.junoyoon.gitonline.index.ChangedPathIndex;
+import org.junoyoon.gitonline.index.ChangedPathRevFilter;
+import org.junoyoon.gitonline.metrics.CommandListener;
+import org.junoyoon.gitonline.metrics.CommandMetrics;
+import org.junoyoon.gitonline.metrics.Phase;
+import org.junoyoon.gitonline.model.LogEntry;
+import org.junoyoon.gitonline.model.LogPage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * List the commits which changed a file or a directory, newest first, a page at a time.
+ * <p/>
+ * The history is walked lazily: a page stops the walk as soon as it has its commits, or when it
+ * has visited {@code maxCommitsPerPage} commits, so the first page of a path with a long history
+ * costs as little as the page itself. The commits which do not touch the path are mostly skipped by
+ * the {@link ChangedPathIndex} without reading their trees.
+ * <p/>
+ * A cursor is the frontier of the walk, the commits which are not visited yet but whose children
+ * are, with the path followed at that point. Resuming marks them as the starts of a new walk, so the
+ * next page neither re-walks the previous pages nor depends on state kept between the calls. When
+ * the commit times go backwards, as after a clock skew, a commit may be listed twice.
+ */
+public class OnlineLogCommand {
+
+	public static final int DEFAULT_MAX_COMMITS_PER_PAGE = 10000;
+
+	private Repository repository;
+	private RepositoryManager repositoryManager;
+	private CommandListener listener = CommandMetrics.getDefault();
+	private int maxCommitsPerPage = DEFAULT_MAX_COMMITS_PER_PAGE;
+	private boolean followRenames;
+
+	public OnlineLogCommand(Repository repository) {
+		this.repository = repository;
+	}
+
+	/**
+	 * Borrow the walks from {@code repositoryManager} instead of creating new ones for every call.
+	 */
+	public OnlineLogCommand setRepositoryManager(RepositoryManager repositoryManager) {
+		this.repositoryManager = repositoryManager;
+		return this;
+	}
+
+	public OnlineLogCommand setListener(CommandListener listener) {
+		this.listener = listener;
+		return this;
+	}
+
+	/**
+	 * @param maxCommitsPerPage maximum number of commits a page visits, matching or not. Zero or less
+	 *                          walks until the page is full.
+	 */
+	public OnlineLogCommand setMaxCommitsPerPage(int maxCommitsPerPage) {
+		this.maxCommitsPerPage = maxCommitsPerPage;
+		return this;
+	}
+
+	/**
+	 * If {@code true}, the history of a file goes on with its old path past the commit which renamed
+	 * it, as {@code git log --follow} does. Like it, the path is followed along a single line of
+	 * history; a rename on one side of a merge switches the path for the rest of the walk.
+	 */
+	public OnlineLogCommand setFollowRenames(boolean followRenames) {
+		this.followRenames = followRenames;
+		return this;
+	}
+
+	/**
+	 * List at most {@code limit} commits which changed {@code path}, from {@code revision} or from
+	 * where the previous page stopped.
+	 *
+	 * @param revision branch, tag or commit id. {@code null} means HEAD. Ignored with a cursor.
+	 * @param path     file or directory. An empty path lists every commit.
+	 * @param cursor   {@link LogPage#getNextCursor()} of the previous page, or {@code null} for the first page
+	 * @param limit    maximum number of commits. Zero or less lists every commit within the walk limit.
+	 * @return the page, or {@code null} if {@code revision} does not exist
+	 */
+	public LogPage getLog(String revision, String path, String cursor, int limit) throws IOException {
+		Log log = open(revision, path, cursor);
+		if (log == null) {
+			return null;
+		}
+		try {
+			List<LogEntry> entries = new ArrayList<LogEntry>();
+			while ((limit <= 0 || entries.size() < limit) && log.hasNext()) {
+				entries.add(log.next());
+			}
+			return new LogPage(entries, log.getCursor());
+		} finally {
+			log.close();
+		}
+	}
+
+	/**
+	 * Start walking the history of {@code path}. Commits are read from the repository only as the
+	 * returned iterator is advanced, and it ends when the history does or when
+	 * {@code maxCommitsPerPage} commits are visited. The log has to be closed.
+	 *
+	 * @return the log, or {@code null} if {@code revision} does not exist
+	 * @see #getLog(String, String, String, int)
+	 */
+	public Log open(String revision, String path, String cursor) throws IOException {
+		RevWalk revWalk = borrowWalk();
+		try {
+			long started = System.nanoTime();
+			List<RevCommit> starts = new ArrayList<RevCommit>();
+			if (cursor == null) {
+				ObjectId commitId = repository.resolve(revision == null ? Constants.HEAD : revision);
+				if (commitId == null) {
+					release(revWalk);
+					return null;
+				}
+				starts.add(revWalk.parseCommit(commitId));
+			} else {
+				int colon = cursor.indexOf(':');
+				if (colon < 0) {
+					throw new IllegalArgumentException("invalid cursor : " + cursor);
+				}
+				for (String each : Splitter.on(',').omitEmptyStrings().split(cursor.substring(0, colon))) {
+					starts.add(revWalk.parseCommit(ObjectId.fromString(each)));
+				}
+				path = cursor.substring(colon + 1);
+			}
+			listener.onPhase(Phase.RESOLVE, System.nanoTime() - started);
+			return new Log(revWalk, starts, path == null ? "" : path);
+		} catch (IOException e) {
+			release(revWalk);
+			throw e;
+		} catch (RuntimeException e) {
+			release(revWalk);
+			throw e;
+		}
+	}
+
+	/*
+	 * repositoryManager 가 있으면 walk 를 빌려오고, 없으면 새로 만든다
+	 */
+	private RevWalk borrowWalk() {
+		if (repositoryManager == null) {
+			return new RevWalk(repository);
+		}
+		return repositoryManager.borrowRevWalk(repository);
+	}
+
+	private void release(RevWalk revWalk) {
+		if (repositoryManager == null) {
+			revWalk.release();
+		} else {
+			repositoryManager.release(repository, revWalk);
+		}
+	}
+
+	/**
+	 * The commits of a history being walked. A failure to read the repository is thrown as a
+	 * {@link RevWalkException}.
+	 */
+	public class Log implements Iterator<LogEntry>, Closeable {
+
+		private final RevWalk revWalk;
+		private final List<RevCommit> starts;
+		private final RevFlag visitedFlag;
+		private final List<RevCommit> visited = new ArrayList<RevCommit>();
+		private RevFilter pathFilter;
+		private String path;
+
+		private LogEntry next;
+		private RevCommit nextCommit;
+		private String nextPath;
+		private boolean done;
+		private boolean stopped;
+		private long walkNanos;
+
+		// include 가 통과시킨 commit 의 path. rename 을 만나면 path 는 옛 이름으로 바뀐다
+		private String matchedPath;
+		private String matchedOldPath;
+
+		private Log(RevWalk revWalk, List<RevCommit> starts, String path) throws IOException {
+			this.revWalk = revWalk;
+			this.starts = starts;
+			this.visitedFlag = revWalk.newFlag("VISITED");
+			setPath(path);
+			revWalk.setRevFilter(new PageFilter());
+			for (RevCommit each : starts) {
+				revWalk.markStart(each);
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (next != null) {
+				return true;
+			}
+			if (done) {
+				return false;
+			}
+			long started = System.nanoTime();
+			try {
+				RevCommit commit = revWalk.next();
+				if (commit == null) {
+					done = true;
+					return false;
+				}
+				next = toLogEntry(commit, matchedPath, matchedOldPath);
+				nextCommit = commit;
+				nextPath = matchedPath;
+				return true;
+			} catch (IOException e) {
+				throw new RevWalkException(e);
+			} finally {
+				walkNanos += System.nanoTime() - started;
+			}
+		}
+
+		@Override
+		public LogEntry next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			LogEntry result = next;
+			next = null;
+			nextCommit = null;
+			return result;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		/**
+		 * @return cursor which resumes the walk after the commits returned so far, or {@code null} if
+		 * the whole history is returned
+		 */
+		public String getCursor() {
+			if (done && !stopped) {
+				return null;
+			}
+			// 읽었지만 아직 돌려주지 않은 commit 은 다음 walk 에서 다시 찾는다
+			Set<ObjectId> frontier = new LinkedHashSet<ObjectId>();
+			if (nextCommit != null) {
+				frontier.add(nextCommit.copy());
+			}
+			for (RevCommit each : starts) {
+				if (!each.has(visitedFlag)) {
+					frontier.add(each.copy());
+				}
+			}
+			for (RevCommit each : visited) {
+				for (RevCommit parent : each.getParents()) {
+					if (!parent.has(visitedFlag)) {
+						frontier.add(parent.copy());
+					}
+				}
+			}
+			if (frontier.isEmpty()) {
+				return null;
+			}
+			List<String> names = new ArrayList<String>(frontier.size());
+			for (ObjectId each : frontier) {
+				names.add(each.name());
+			}
+			return Joiner.on(',').join(names) + ":" + (nextCommit != null ? nextPath : path);
+		}
+
+		/**
+		 * @return number of commits visited so far, matching or not
+		 */
+		public int getVisitedCount() {
+			return visited.size();
+		}
+
+		@Override
+		public void close() {
+			listener.onPhase(Phase.HISTORY_WALK, walkNanos);
+			listener.onCommitsWalked(visited.size());
+			revWalk.disposeFlag(visitedFlag);
+			release(revWalk);
+		}
+
+		private void setPath(String path) {
+			this.path = path;
+			this.pathFilter = path.isEmpty() ? RevFilter.ALL : new ChangedPathRevFilter(ChangedPathIndex.get(repository), path);
+		}
+
+		private LogEntry toLogEntry(RevCommit commit, String path, String oldPath) {
+			LogEntry entry = new LogEntry();
+			entry.setCommitId(commit.name());
+			List<String> parentIds = new ArrayList<String>(commit.getParentCount());
+			for (RevCommit each : commit.getParents()) {
+				parentIds.add(each.name());
+			}
+			entry.setParentIds(parentIds);
+			entry.setPath(path);
+			entry.setOldPath(oldPath);
+			entry.setMessage(commit.getFullMessage());
+			PersonIdent author = commit.getAuthorIdent();
+			entry.setAuthorName(author.getName());
+			entry.setAuthorEmail(author.getEmailAddress());
+			entry.setAuthorDate(author.getWhen().getTime());
+			PersonIdent committer = commit.getCommitterIdent();
+			entry.setCommitterName(committer.getName());
+			entry.setCommitterEmail(committer.getEmailAddress());
+			entry.setCommitDate(commit.getCommitTime() * 1000L);
+			return entry;
+		}
+
+		/*
+		 * RevWalk 는 filter 를 먼저 부르고, 그 다음에 commit 의 parent 들을 parse 해서 queue 에 넣는다. 그러므로 여기서
+		 * parent 가 parse 되었거나 queue 에 있다고 기대하면 안 된다. cursor 는 본 commit 들의 getParents() 중 visited
+		 * flag 가 없는 것들로만 만든다. 한도에 닿으면 그 commit 은 보지 않은 채로 walk 를 멈춘다.
+		 */
+		private class PageFilter extends RevFilter {
+
+			@Override
+			public boolean include(RevWalk walker, RevCommit commit) throws IOException {
+				if (maxCommitsPerPage > 0 && visited.size() >= maxCommitsPerPage) {
+					stopped = true;
+					throw StopWalkException.INSTANCE;
+				}
+				commit.add(visitedFlag);
+				visited.add(commit);
+				if (!pathFilter.include(walker, commit)) {
+					return false;
+				}
+				matchedPath = path;
+				matchedOldPath = null;
+				if (followRenames && !path.isEmpty() && commit.getParentCount() == 1) {
+					String oldPath = findRenameSource(walker, commit, path);
+					if (oldPath != null) {
+						matchedOldPath = oldPath;
+						setPath(oldPath);
+					}
+				}
+				return true;
+			}
+
+			@Override
+			public RevFilter clone() {
+				throw new UnsupportedOperationException("the filter of a log keeps the state of its walk");
+			}
+		}
+	}
+
+	/*
+	 * commit 이 path 를 새로 만들었으면, rename 검사로 옮겨오기 전의 path 를 찾는다
+	 */
+	private String findRenameSource(RevWalk revWalk, RevCommit commit, String path) throws IOException {
+		ObjectReader reader = revWalk.getObjectReader();
+		RevCommit parent = commit.getParent(0);
+		revWalk.parseHeaders(parent);
+		if (TreeWalk.forPath(reader, path, parent.getTree()) != null) {
+			return null;
+		}
+		TreeWalk treeWalk = new TreeWalk(reader);
+		try {
+			treeWalk.addTree(parent.getTree());
+			treeWalk.addTree(commit.getTree());
+			treeWalk.setRecursive(true);
+			treeWalk.setFilter(TreeFilter.ANY_DIFF);
+			RenameDetector renameDetector = new RenameDetector(reader, repository.getConfig().get(DiffConfig.KEY));
+			renameDetector.addAll(DiffEntry.scan(treeWalk));
+			for (DiffEntry each : renameDetector.compute(reader, NullProgressMonitor.INSTANCE)) {
+				if (each.getChangeType() == DiffEntry.ChangeType.RENAME && each.getNewPath().equals(path)) {
+					return each.getOldPath();
+				}
+			}
+			return null;
+		} finally {
+			treeWalk.release();
+		}
+	}
+}
@@ -1,82 +1,331 @@
 package org.junoyoon.gitonline.cmd;
 
 import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.google.common.primitives.UnsignedBytes;
 import org.apache.commons.lang.StringUtils;
-import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.api.LogCommand;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.diff.RawText;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.lib.*;
 import org.eclipse.jgit.revwalk.RevCommit;
-import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.treewalk.TreeWalk;
-import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.junoyoon.gitonline.index.ChangedPathIndex;
+import org.junoyoon.gitonline.index.ChangedPathRevFilter;
+import org.junoyoon.gitonline.index.LastCommitIndex;
+import org.junoyoon.gitonline.metrics.CommandListener;
+import org.junoyoon.gitonline.metrics.CommandMetrics;
+import org.junoyoon.gitonline.metrics.Phase;
+import org.junoyoon.gitonline.model.EntryField;
 import org.junoyoon.gitonline.model.FileEntry;
+import org.junoyoon.gitonline.model.LsPage;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Commit Online file
  */
 public class OnlineLsCommand {
 
+	/**
+	 * Fields which {@link #getLs(String, String)} fills.
+	 */
+	public static final Set<EntryField> DEFAULT_FIELDS = Collections.unmodifiableSet(EnumSet.of(EntryField.LAST_COMMIT, EntryField.SIZE));
+
+	/**
+	 * Number of bytes read from the start of a file to decide whether it is binary.
+	 */
+	public static final int BINARY_SNIFF_BYTES = 8000;
+
+	private static final ForkJoinPool DEFAULT_ATTRIBUTION_POOL = new ForkJoinPool();
+	private static final TreeListingCache DEFAULT_TREE_LISTING_CACHE = new TreeListingCache();
+	private static final TreeRollupCache DEFAULT_TREE_ROLLUP_CACHE =
+			new TreeRollupCache(TreeRollupCache.DEFAULT_MAX_TREES, DEFAULT_TREE_LISTING_CACHE);
+
 	private Repository repository;
+	private LastCommitIndex lastCommitIndex;
+	private ForkJoinPool attributionPool = DEFAULT_ATTRIBUTION_POOL;
+	private int parallelThreshold = 128;
+	private RepositoryManager repositoryManager;
+	private TreeListingCache treeListingCache = DEFAULT_TREE_LISTING_CACHE;
+	private TreeRollupCache treeRollupCache = DEFAULT_TREE_ROLLUP_CACHE;
+	private CommandListener listener = CommandMetrics.getDefault();
 
 	public OnlineLsCommand(Repository repository) {
 		this.repository = repository;
+		this.lastCommitIndex = new LastCommitIndex(repository);
+	}
+
+	/**
+	 * Directories with more entries than {@code parallelThreshold} are split into subsets of at most
+	 * that many entries, whose last commits are found on {@code attributionPool} at the same time.
+	 * A {@code null} pool finds them one by one on the caller thread.
+	 */
+	public OnlineLsCommand setAttributionPool(ForkJoinPool attributionPool, int parallelThreshold) {
+		this.attributionPool = attributionPool;
+		this.parallelThreshold = parallelThreshold;
+		return this;
+	}
+
+	/**
+	 * If {@code false}, the last commits are always found by walking the history.
+	 */
+	public OnlineLsCommand setUseLastCommitIndex(boolean useLastCommitIndex) {
+		this.lastCommitIndex = useLastCommitIndex ? new LastCommitIndex(repository) : null;
+		return this;
+	}
+
+	/**
+	 * Borrow the readers and walks from {@code repositoryManager} instead of creating new ones for
+	 * every call.
+	 */
+	public OnlineLsCommand setRepositoryManager(RepositoryManager repositoryManager) {
+		this.repositoryManager = repositoryManager;
+		return this;
+	}
+
+	/**
+	 * Share parsed trees through {@code treeListingCache}. A {@code null} cache parses every tree
+	 * each time it is listed.
+	 */
+	public OnlineLsCommand setTreeListingCache(TreeListingCache treeListingCache) {
+		this.treeListingCache = treeListingCache;
+		return this;
+	}
+
+	/**
+	 * Share the directory sizes through {@code treeRollupCache}.
+	 */
+	public OnlineLsCommand setTreeRollupCache(TreeRollupCache treeRollupCache) {
+		this.treeRollupCache = treeRollupCache;
+		return this;
+	}
+
+	/**
+	 * Report the timings and counts of the listings to {@code listener} instead of
+	 * {@link CommandMetrics#getDefault()}.
+	 */
+	public OnlineLsCommand setListener(CommandListener listener) {
+		this.listener = listener;
+		return this;
 	}
 
 	public List<FileEntry> getLs(String branch, String path) throws IOException, GitAPIException {
-		RevCommit headCommit = getRevCommit(branch);
-		if (headCommit == null) {
-			return null;
+		return getLs(branch, path, DEFAULT_FIELDS);
+	}
+
+	/**
+	 * List {@code path} at {@code branch}, filling only the given metadata of the entries. Without
+	 * {@link EntryField#LAST_COMMIT} and {@link EntryField#COMMIT_INFO} the history is not walked, and
+	 * without {@link EntryField#SIZE} and {@link EntryField#BINARY} no blob is read.
+	 */
+	public List<FileEntry> getLs(String branch, String path, Set<EntryField> fields) throws IOException, GitAPIException {
+		LsPage page = getLsPage(branch, path, null, 0, fields);
+		return page == null ? null : page.getEntries();
+	}
+
+	/**
+	 * List at most {@code limit} entries of {@code path} at {@code branch}, in the tree order, after
+	 * the entry named by {@code pageToken}. Only the entries of the page are built and enriched with
+	 * {@code fields}.
+	 * <p/>
+	 * A page token is the name of the last entry of the previous page, with a '/' appended if it is a
+	 * directory. It stays valid if the directory changes; the next page starts after where that entry
+	 * is, or would be, in the tree order.
+	 *
+	 * @param pageToken {@link LsPage#getNextPageToken()} of the previous page, or {@code null} for the first page
+	 * @param limit     maximum number of entries. Zero or less lists every remaining entry.
+	 * @return the page, or {@code null} if {@code branch} or {@code path} does not exist
+	 */
+	public LsPage getLsPage(String branch, String path, String pageToken, int limit, Set<EntryField> fields) throws IOException, GitAPIException {
+		RevWalk revWalk = borrowWalk();
+		try {
+			RevCommit headCommit = getRevCommit(revWalk, branch);
+			if (headCommit == null) {
+				return null;
+			}
+
+			long started = System.nanoTime();
+			ObjectReader reader = revWalk.getObjectReader();
+			AnyObjectId treeId = headCommit.getTree();
+			if (!path.isEmpty()) {
+				TreeWalk treeWalk = TreeWalk.forPath(reader, path, headCommit.getTree());
+				if (treeWalk == null) {
+					return null;
+				}
+				if (!treeWalk.isSubtree()) {
+					listener.onPhase(Phase.TREE_WALK, System.nanoTime() - started);
+					List<FileEntry> entries = listFile(revWalk, treeWalk, headCommit, fields);
+					return entries == null ? null : new LsPage(entries, null);
+				}
+				treeId = treeWalk.getObjectId(0);
+			}
+
+			List<TreeListingCache.Entry> treeEntries = listTree(reader, treeId);
+			listener.onPhase(Phase.TREE_WALK, System.nanoTime() - started);
+			int from = pageToken == null ? 0 : indexAfter(treeEntries, pageToken);
+			int to = limit > 0 ? (int) Math.min(treeEntries.size(), (long) from + limit) : treeEntries.size();
+			List<FileEntry> entries = getFileEntries(path, treeEntries.subList(from, to), headCommit, fields,
+					from == 0 && to == treeEntries.size());
+			enrich(revWalk, entries, fields);
+			String nextPageToken = to < treeEntries.size() ? toPageToken(treeEntries.get(to - 1)) : null;
+			return new LsPage(filter(path, entries), nextPageToken);
+		} finally {
+			release(revWalk);
 		}
+	}
 
-		RevWalk revWalk = new RevWalk(repository);
-		RevTree revTree = revWalk.parseTree(headCommit);
-		TreeWalk treeWalk = new TreeWalk(repository);
-		treeWalk.addTree(revTree);
+	/**
+	 * List every entry under {@code path} at {@code branch}. A directory comes right before its
+	 * entries, and each directory is in the tree order.
+	 *
+	 * @return the entries, or {@code null} if {@code branch} or {@code path} does not exist
+	 */
+	public List<FileEntry> getLsRecursive(String branch, String path, Set<EntryField> fields) throws IOException, GitAPIException {
+		RevWalk revWalk = borrowWalk();
+		try {
+			RevCommit headCommit = getRevCommit(revWalk, branch);
+			if (headCommit == null) {
+				return null;
+			}
+			AnyObjectId treeId = headCommit.getTree();
+			if (!path.isEmpty()) {
+				TreeWalk treeWalk = TreeWalk.forPath(revWalk.getObjectReader(), path, headCommit.getTree());
+				if (treeWalk == null) {
+					return null;
+				}
+				if (!treeWalk.isSubtree()) {
+					return listFile(revWalk, treeWalk, headCommit, fields);
+				}
+				treeId = treeWalk.getObjectId(0);
+			}
+			List<FileEntry> result = Lists.newArrayList();
+			listRecursive(revWalk, path, treeId, headCommit, fields, result);
+			return result;
+		} finally {
+			release(revWalk);
+		}
+	}
 
-		if (path.isEmpty()) {
-			return filter(path, getFileEntries(path, treeWalk, headCommit));
+	private List<FileEntry> listFile(RevWalk revWalk, TreeWalk treeWalk, RevCommit headCommit, Set<EntryField> fields) throws IOException, GitAPIException {
+		List<FileEntry> entries;
+		try {
+			entries = getFileEntry(treeWalk, headCommit, fields);
+		} catch (MissingObjectException e) {
+			return null;
 		}
+		enrich(revWalk, entries, fields);
+		return entries;
+	}
 
+	private void listRecursive(RevWalk revWalk, String basePath, AnyObjectId treeId, RevCommit headCommit,
+							   Set<EntryField> fields, List<FileEntry> result) throws IOException, GitAPIException {
+		List<TreeListingCache.Entry> treeEntries = listTree(revWalk.getObjectReader(), treeId);
+		List<FileEntry> entries = getFileEntries(basePath, treeEntries, headCommit, fields, true);
+		enrich(revWalk, entries, fields);
+		filter(basePath, entries);
+		for (int i = 0; i < entries.size(); i++) {
+			result.add(entries.get(i));
+			if (treeEntries.get(i).isTree()) {
+				listRecursive(revWalk, entries.get(i).getPath(), treeEntries.get(i).getObjectId(), headCommit, fields, result);
+			}
+		}
+	}
 
-		PathFilter pathFilter = PathFilter.create(path);
-		treeWalk.setFilter(pathFilter);
-		while (treeWalk.next()) {
-			if (pathFilter.isDone(treeWalk)) {
-				break;
-			} else if (treeWalk.isSubtree()) {
-				treeWalk.enterSubtree();
+	/**
+	 * @return total size and number of files under {@code path} at {@code branch}, or {@code null} if
+	 * it is not a directory
+	 */
+	public TreeRollupCache.Rollup getDirectorySize(String branch, String path) throws IOException {
+		RevWalk revWalk = borrowWalk();
+		try {
+			RevCommit headCommit = getRevCommit(revWalk, branch);
+			if (headCommit == null) {
+				return null;
 			}
+			if (path.isEmpty()) {
+				return treeRollupCache.get(revWalk.getObjectReader(), headCommit.getTree());
+			}
+			TreeWalk treeWalk = TreeWalk.forPath(revWalk.getObjectReader(), path, headCommit.getTree());
+			if (treeWalk == null || !treeWalk.isSubtree()) {
+				return null;
+			}
+			return treeRollupCache.get(revWalk.getObjectReader(), treeWalk.getObjectId(0));
+		} finally {
+			release(revWalk);
 		}
+	}
 
-		if (treeWalk.isSubtree()) {
-			treeWalk.enterSubtree();
-			return filter(path, getFileEntries(path, treeWalk, headCommit));
-		} else {
-			try {
+	private String toPageToken(TreeListingCache.Entry entry) {
+		return entry.isTree() ? entry.getName() + "/" : entry.getName();
+	}
 
-				return filter(path, getFileEntry(treeWalk, headCommit));
-			} catch (MissingObjectException e) {
-				return null;
+	/*
+	 * tree 는 이름의 byte 순서로, subtree 는 이름 뒤에 '/' 가 붙은 것처럼 정렬되어 있으므로
+	 * page token 과 byte 순서로 비교해서 그 다음 entry 를 찾는다
+	 */
+	private int indexAfter(List<TreeListingCache.Entry> treeEntries, String pageToken) {
+		Comparator<byte[]> order = UnsignedBytes.lexicographicalComparator();
+		byte[] token = Constants.encode(pageToken);
+		int low = 0;
+		int high = treeEntries.size();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (order.compare(Constants.encode(toPageToken(treeEntries.get(mid))), token) <= 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
 			}
 		}
+		return low;
 	}
 
-	public List<FileEntry> filter(String path, Collection<FileEntry> entries) {
-		List<FileEntry> fileEntries = Lists.newArrayList();
-		for (FileEntry entry : entries) {
-			if (StringUtils.isNotEmpty(path)) {
+	/*
+	 * entry 의 이름 앞에 path 를 붙인다. 목록은 복사하지 않는다.
+	 */
+	public List<FileEntry> filter(String path, List<FileEntry> entries) {
+		if (StringUtils.isNotEmpty(path)) {
+			for (FileEntry entry : entries) {
 				entry.setPath(path + "/" + entry.getPath());
 			}
-			entry.setDir(!isFile(entry.getPath(), "HEAD"));
-			fileEntries.add(entry);
 		}
-		return fileEntries;
+		return entries;
+	}
+
+	/*
+	 * treeWalk 가 현재 위치한 entry 의 종류, mode, object id 를 그대로 옮긴다.
+	 */
+	private FileEntry toFileEntry(TreeWalk treeWalk, String path) {
+		FileEntry entry = new FileEntry();
+		entry.setPath(path);
+		entry.setMode(treeWalk.getFileMode(0));
+		entry.setObjectId(treeWalk.getObjectId(0));
+		entry.setDir(treeWalk.isSubtree());
+		return entry;
+	}
+
+	private FileEntry toFileEntry(TreeListingCache.Entry treeEntry) {
+		FileEntry entry = new FileEntry();
+		entry.setPath(treeEntry.getName());
+		entry.setMode(treeEntry.getMode());
+		entry.setObjectId(treeEntry.getObjectId());
+		entry.setDir(treeEntry.isTree());
+		return entry;
+	}
+
+	/*
+	 * tree 는 바뀌지 않으므로 같은 tree id 의 entry 들은 treeListingCache 에서 가져온다
+	 */
+	private List<TreeListingCache.Entry> listTree(ObjectReader reader, AnyObjectId treeId) throws IOException {
+		if (treeListingCache == null) {
+			listener.onObjectsRead(1);
+			return TreeListingCache.parse(reader, treeId);
+		}
+		return treeListingCache.get(reader, treeId, listener);
 	}
 
 
@@ -87,55 +336,234 @@ public class OnlineLsCommand {
 	 *
 	 * @param treeWalk
 	 * @param untilCommitId
+	 * @param fields
 	 * @return
 	 * @throws IOException
 	 * @see <a href="https://www.kernel.org/pub/software/scm/git/docs/git-log.html">git log until</a>
 	 */
-	private Collection<FileEntry> getFileEntry(TreeWalk treeWalk, AnyObjectId untilCommitId) throws IOException, GitAPIException {
-		Git git = new Git(repository);
-
-		final RevCommit next = git.log()
-				.add(untilCommitId)
-				.addPath(treeWalk.getPathString())
-				.call()
-				.iterator()
-				.next();
-		long commitTime = next.getCommitTime() * 1000L;
-		FileEntry entry = new FileEntry();
-		entry.setPath(treeWalk.getPathString());
-		//User author = commit.getAuthor();
-
-//		result.put("createdDate", commitTime);
-//		result.put("commitMessage", commit.getShortMessage());
-//		result.put("commiter", commit.getCommitterName());
-//		result.put("commitDate", commitTime);
-//		result.put("commitId", untilCommitId.getName());
-		ObjectLoader file = repository.open(treeWalk.getObjectId(0));
-		entry.setFileSize(file.getSize());
-//
-//		boolean isBinary = RawText.isBinary(file.openStream());
-//		result.put("isBinary", isBinary);
-
+	private List<FileEntry> getFileEntry(TreeWalk treeWalk, AnyObjectId untilCommitId, Set<EntryField> fields) throws IOException, GitAPIException {
+		FileEntry entry = toFileEntry(treeWalk, treeWalk.getPathString());
+		if (!needsLastCommit(fields)) {
+			return Lists.newArrayList(entry);
+		}
+		RevCommit next = null;
+		ObjectId objectId = treeWalk.getObjectId(0);
+		long started = System.nanoTime();
+		long walked = 0;
+		RevWalk pathLog = getPathLog(untilCommitId, treeWalk.getPathString());
+		try {
+			for (RevCommit each : pathLog) {
+				walked++;
+				// side branch 의 commit 은 결국 merge 되지 않은 내용일 수 있으므로 지금의 내용을 만든 commit 을 찾는다
+				TreeWalk found = TreeWalk.forPath(pathLog.getObjectReader(), treeWalk.getPathString(), each.getTree());
+				if (found != null && objectId.equals(found.getObjectId(0))) {
+					next = each;
+					break;
+				}
+			}
+		} finally {
+			release(pathLog);
+			listener.onPhase(Phase.HISTORY_WALK, System.nanoTime() - started);
+			listener.onCommitsWalked(walked);
+		}
+		if (next == null) {
+			throw new MissingObjectException(objectId, Constants.OBJ_COMMIT);
+		}
+		entry.setCommitId(next.getName());
 		return Lists.newArrayList(entry);
 	}
 
+	private boolean needsLastCommit(Set<EntryField> fields) {
+		return fields.contains(EntryField.LAST_COMMIT) || fields.contains(EntryField.COMMIT_INFO);
+	}
+
 	/*
-	 * 주어진 git 객체 참조 값을 이용해서 commit 객체를 가져온다
-     */
-	private RevCommit getRevCommit(String revstr) throws IOException {
-		ObjectId objectId = getObjectId(revstr);
-		return parseCommit(objectId);
+	 * 요청한 metadata 만 채운다. 많은 file 의 blob 은 attributionPool 에서 나누어 읽고,
+	 * commit 은 revWalk 가 한 번 읽은 것을 다시 쓰므로 같은 commit 은 한 번만 읽는다.
+	 */
+	private void enrich(RevWalk revWalk, Collection<FileEntry> entries, Set<EntryField> fields) throws IOException {
+		if (fields.contains(EntryField.SIZE) || fields.contains(EntryField.BINARY)) {
+			List<FileEntry> files = Lists.newArrayList();
+			for (FileEntry each : entries) {
+				if (!each.isDir() && !each.isSubmodule()) {
+					files.add(each);
+				}
+			}
+			if (attributionPool == null || files.size() <= parallelThreshold) {
+				readBlobs(revWalk.getObjectReader(), files, fields);
+			} else {
+				try {
+					attributionPool.invoke(new ReadBlobsTask(files, fields));
+				} catch (RuntimeException e) {
+					IOException cause = findIOException(e);
+					if (cause != null) {
+						throw cause;
+					}
+					throw e;
+				}
+			}
+		}
+		if (fields.contains(EntryField.DIRECTORY_SIZE)) {
+			for (FileEntry each : entries) {
+				if (each.isDir()) {
+					TreeRollupCache.Rollup rollup = treeRollupCache.get(revWalk.getObjectReader(), each.getObjectId());
+					each.setFileSize(rollup.getSize());
+					each.setFileCount(rollup.getFileCount());
+				}
+			}
+		}
+		if (fields.contains(EntryField.COMMIT_INFO)) {
+			for (FileEntry each : entries) {
+				if (each.getCommitId() == null) {
+					continue;
+				}
+				RevCommit commit = revWalk.parseCommit(ObjectId.fromString(each.getCommitId()));
+				PersonIdent author = commit.getAuthorIdent();
+				each.setCommitMessage(commit.getShortMessage());
+				each.setAuthorName(author.getName());
+				each.setAuthorEmail(author.getEmailAddress());
+				each.setCommitDate(commit.getCommitTime() * 1000L);
+			}
+		}
+	}
+
+	private void readBlobs(ObjectReader reader, List<FileEntry> files, Set<EntryField> fields) throws IOException {
+		listener.onObjectsRead(files.size());
+		for (FileEntry each : files) {
+			if (fields.contains(EntryField.BINARY)) {
+				ObjectLoader loader = reader.open(each.getObjectId(), Constants.OBJ_BLOB);
+				each.setFileSize(loader.getSize());
+				each.setBinary(isBinary(loader));
+			} else {
+				each.setFileSize(reader.getObjectSize(each.getObjectId(), Constants.OBJ_BLOB));
+			}
+		}
 	}
 
 	/*
-	 * AnyObjectId 를 이용해서 RevCommit 객체를 얻는다
+	 * 앞의 BINARY_SNIFF_BYTES 만 본다. large blob 은 그만큼만 inflate 한다.
 	 */
-	private RevCommit parseCommit(AnyObjectId objectId) throws IOException {
-		if (objectId == null) {
-			return null;
+	private boolean isBinary(ObjectLoader loader) throws IOException {
+		if (!loader.isLarge()) {
+			byte[] raw = loader.getCachedBytes();
+			return RawText.isBinary(raw, Math.min(raw.length, BINARY_SNIFF_BYTES));
+		}
+		ObjectStream in = loader.openStream();
+		try {
+			byte[] prefix = new byte[BINARY_SNIFF_BYTES];
+			return RawText.isBinary(prefix, ByteStreams.read(in, prefix, 0, prefix.length));
+		} finally {
+			in.close();
+		}
+	}
+
+	/*
+	 * ForkJoinTask 는 다른 thread 에서 던진 예외를 caller thread 에서 다시 감싸서 던지므로 cause 를 끝까지 따라간다.
+	 */
+	static IOException findIOException(Throwable e) {
+		for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+			if (cause instanceof IOException) {
+				return (IOException) cause;
+			}
+		}
+		return null;
+	}
+
+	private class ReadBlobsTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final List<FileEntry> subset;
+		private final Set<EntryField> fields;
+
+		ReadBlobsTask(List<FileEntry> subset, Set<EntryField> fields) {
+			this.subset = subset;
+			this.fields = fields;
+		}
+
+		@Override
+		protected void compute() {
+			if (subset.size() <= parallelThreshold) {
+				ObjectReader reader = borrowReader();
+				try {
+					readBlobs(reader, subset, fields);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				} finally {
+					release(reader);
+				}
+				return;
+			}
+			int half = subset.size() / 2;
+			invokeAll(new ReadBlobsTask(subset.subList(0, half), fields),
+					new ReadBlobsTask(subset.subList(half, subset.size()), fields));
+		}
+	}
+
+	/*
+	 * untilCommitId 부터 path 를 바꾼 commit 들. 각 commit 의 changed-path filter 로 tree 비교를 건너뛴다.
+	 * 돌려받은 walk 는 다 쓴 뒤 release 해야 한다.
+	 */
+	private RevWalk getPathLog(AnyObjectId untilCommitId, String path) throws IOException {
+		RevWalk revWalk = borrowWalk();
+		try {
+			revWalk.markStart(revWalk.parseCommit(untilCommitId));
+		} catch (IOException e) {
+			release(revWalk);
+			throw e;
+		}
+		if (StringUtils.isNotEmpty(path)) {
+			revWalk.setRevFilter(new ChangedPathRevFilter(ChangedPathIndex.get(repository), path));
+		}
+		return revWalk;
+	}
+
+	/*
+	 * repositoryManager 가 있으면 walk 를 빌려오고, 없으면 새로 만든다
+	 */
+	private RevWalk borrowWalk() {
+		if (repositoryManager == null) {
+			return new RevWalk(repository);
+		}
+		return repositoryManager.borrowRevWalk(repository);
+	}
+
+	private void release(RevWalk revWalk) {
+		if (repositoryManager == null) {
+			revWalk.release();
+		} else {
+			repositoryManager.release(repository, revWalk);
+		}
+	}
+
+	private ObjectReader borrowReader() {
+		if (repositoryManager == null) {
+			return repository.newObjectReader();
+		}
+		return repositoryManager.borrowReader(repository);
+	}
+
+	private void release(ObjectReader reader) {
+		if (repositoryManager == null) {
+			reader.release();
+		} else {
+			repositoryManager.release(repository, reader);
+		}
+	}
+
+	/*
+	 * 주어진 git 객체 참조 값을 이용해서 commit 객체를 가져온다
+     */
+	private RevCommit getRevCommit(RevWalk revWalk, String revstr) throws IOException {
+		long started = System.nanoTime();
+		try {
+			ObjectId objectId = getObjectId(revstr);
+			if (objectId == null) {
+				return null;
+			}
+			return revWalk.parseCommit(objectId);
+		} finally {
+			listener.onPhase(Phase.RESOLVE, System.nanoTime() - started);
 		}
-		RevWalk revWalk = new RevWalk(repository);
-		return revWalk.parseCommit(objectId);
 	}
 
 
@@ -152,56 +580,175 @@ public class OnlineLsCommand {
 
 
 	/**
-	 * {@code treeWalk}가 현재 위치한 디렉토리에 들어있는 파일과 디렉토리 메타데이터를 JSON 데이터로 변환하여 반환한다.
+	 * {@code treeEntries} 에 있는 파일과 디렉토리 메타데이터를 JSON 데이터로 변환하여 반환한다.
 	 * 각 파일과 디렉토리에 대한 {@code untilCommitId} 혹은 그 이전 커밋 중에서 가장 최근 커밋 정보를 사용하여 Commit 메시지와 author 정보등을 같이 반홚다.
 	 *
-	 * @param treeWalk
+	 * @param treeEntries
 	 * @param untilCommitId
+	 * @param fields
+	 * @param wholeTree     {@code treeEntries} 가 디렉토리의 모든 entry 인지
 	 * @return
 	 * @throws IOException
 	 * @throws GitAPIException
 	 * @see <a href="https://www.kernel.org/pub/software/scm/git/docs/git-log.html">git log until</a>
 	 */
-	private Collection<FileEntry> getFileEntries(String basePath, TreeWalk treeWalk, AnyObjectId untilCommitId) throws IOException, GitAPIException {////
-		return new ObjectFinder(basePath, treeWalk, untilCommitId).find();
+	private List<FileEntry> getFileEntries(String basePath, List<TreeListingCache.Entry> treeEntries, AnyObjectId untilCommitId, Set<EntryField> fields, boolean wholeTree) throws IOException, GitAPIException {////
+		List<FileEntry> entries = Lists.newArrayList();
+		for (TreeListingCache.Entry each : treeEntries) {
+			entries.add(toFileEntry(each));
+		}
+		if (!needsLastCommit(fields)) {
+			return entries;
+		}
+		long started = System.nanoTime();
+		try {
+			if (lastCommitIndex != null && setLastCommits(entries, lastCommitIndex.get(untilCommitId, basePath))) {
+				return entries;
+			}
+			// finder 는 entries 의 commit id 를 그 자리에서 채운다
+			findLastCommits(basePath, entries, untilCommitId);
+		} finally {
+			listener.onPhase(Phase.HISTORY_WALK, System.nanoTime() - started);
+		}
+		// 한 page 만의 결과는 디렉토리 전체의 index 가 될 수 없다
+		if (lastCommitIndex != null && wholeTree) {
+			Map<String, ObjectId> lastCommits = new LinkedHashMap<String, ObjectId>();
+			for (FileEntry each : entries) {
+				if (each.getCommitId() == null) {
+					return entries;
+				}
+				lastCommits.put(each.getPath(), ObjectId.fromString(each.getCommitId()));
+			}
+			lastCommitIndex.put(untilCommitId, basePath, lastCommits);
+		}
+		return entries;
+	}
+
+	private boolean setLastCommits(List<FileEntry> entries, Map<String, ObjectId> lastCommits) {
+		if (lastCommits == null) {
+			return false;
+		}
+		for (FileEntry each : entries) {
+			if (!lastCommits.containsKey(each.getPath())) {
+				return false;
+			}
+		}
+		for (FileEntry each : entries) {
+			each.setCommitId(lastCommits.get(each.getPath()).name());
+		}
+		return true;
+	}
+
+	/*
+	 * 많은 entry 는 나누어 attributionPool 에서 동시에 찾는다. 결과는 serial 로 찾은 것과 같다.
+	 */
+	private Collection<FileEntry> findLastCommits(String basePath, List<FileEntry> entries, AnyObjectId untilCommitId) throws IOException, GitAPIException {
+		if (attributionPool == null || entries.size() <= parallelThreshold) {
+			return new ObjectFinder(basePath, entries, untilCommitId).find();
+		}
+		return new ParallelObjectFinder(basePath, entries, untilCommitId).find();
+	}
+
+	/**
+	 * Find the last commits of the entries by running an {@link ObjectFinder} for each subset of
+	 * them on a fork/join pool. Every subset has its own history walk and its own entries, so
+	 * nothing is shared between the tasks, and the entries are returned in the tree order.
+	 */
+	public class ParallelObjectFinder {
+		private final String basePath;
+		private final List<FileEntry> entries;
+		private final AnyObjectId untilCommitId;
+
+		public ParallelObjectFinder(String basePath, List<FileEntry> entries, AnyObjectId untilCommitId) {
+			this.basePath = basePath;
+			this.entries = entries;
+			this.untilCommitId = untilCommitId.copy();
+		}
+
+		public Collection<FileEntry> find() throws IOException {
+			try {
+				attributionPool.invoke(new FindTask(entries));
+			} catch (RuntimeException e) {
+				IOException cause = findIOException(e);
+				if (cause != null) {
+					throw cause;
+				}
+				throw e;
+			}
+			return entries;
+		}
+
+		private class FindTask extends RecursiveAction {
+			private static final long serialVersionUID = 1L;
+
+			private final List<FileEntry> subset;
+
+			FindTask(List<FileEntry> subset) {
+				this.subset = subset;
+			}
+
+			@Override
+			protected void compute() {
+				if (subset.size() <= parallelThreshold) {
+					try {
+						new ObjectFinder(basePath, subset, untilCommitId).find();
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					} catch (GitAPIException e) {
+						throw new RuntimeException(e);
+					}
+					return;
+				}
+				int half = subset.size() / 2;
+				invokeAll(new FindTask(subset.subList(0, half)), new FindTask(subset.subList(half, subset.size())));
+			}
+		}
 	}
 
 	public class ObjectFinder {
-		private Map<String, FileEntry> found = new HashMap<String, FileEntry>();
-		private List<String> targets = new ArrayList<String>();
+		private Map<String, FileEntry> entries = new LinkedHashMap<String, FileEntry>();
+		private Set<String> targets = new HashSet<String>();
 		private String basePath;
 		private AnyObjectId untilCommitId;
+		private RevWalk revWalk;
 		private Iterator<RevCommit> commitIterator;
+		private long walked;
 
-		public ObjectFinder(String basePath, TreeWalk treeWalk, AnyObjectId untilCommitId) throws IOException, GitAPIException {
-			while (treeWalk.next()) {
-				String path = treeWalk.getNameString();
-				targets.add(path);
+		public ObjectFinder(String basePath, Collection<FileEntry> entries, AnyObjectId untilCommitId) throws IOException, GitAPIException {
+			for (FileEntry each : entries) {
+				this.entries.put(each.getPath(), each);
+				targets.add(each.getPath());
 			}
 			this.basePath = basePath;
 			this.untilCommitId = untilCommitId;
 			this.commitIterator = getCommitIterator();
 		}
 
+		/**
+		 * Set the last commit of every entry and return the entries in the tree order. The history
+		 * walk is released afterwards, so a finder can be used only once.
+		 */
 		public Collection<FileEntry> find() throws IOException {
-			while (shouldFindMore()) {
-				RevCommit commit = commitIterator.next();
-				Map<String, ObjectId> objects = findObjects(commit);
-				found(commit, objects);
+			try {
+				while (shouldFindMore()) {
+					RevCommit commit = commitIterator.next();
+					walked++;
+					Map<String, ObjectId> objects = findObjects(commit);
+					found(commit, objects);
+				}
+				return entries.values();
+			} finally {
+				release(revWalk);
+				listener.onCommitsWalked(walked);
 			}
-			return found.values();
 		}
 
 		/*
 		 * get commit logs with untilCommitId and basePath
 		 */
 		private Iterator<RevCommit> getCommitIterator() throws IOException, GitAPIException {
-			Git git = new Git(repository);
-			LogCommand logCommand = git.log().add(untilCommitId);
-			if (StringUtils.isNotEmpty(basePath)) {
-				logCommand.addPath(basePath);
-			}
-			final Iterator<RevCommit> iterator = logCommand.call().iterator();
+			revWalk = getPathLog(untilCommitId, basePath);
+			final Iterator<RevCommit> iterator = revWalk.iterator();
 			return new Iterator<RevCommit>() {
 				@Override
 				public void remove() {
@@ -229,57 +776,49 @@ public class OnlineLsCommand {
 		}
 
 		private Map<String, ObjectId> findObjects(RevCommit commit) throws IOException {
-			final Map<String, ObjectId> objects = new HashMap<String, ObjectId>();
+			Map<String, ObjectId> objects = new HashMap<String, ObjectId>();
 
 			// We want to find the latest commit for each of `targets`. We already know they have
 			// same `basePath`. So get every blobs and trees match one of `targets`, under the
-			// `basePath`, and put them into `objects`.
-			TreeWalkHandler objectCollector = new TreeWalkHandler() {
-				@Override
-				public void handle(TreeWalk treeWalk) {
-					if (targets.contains(treeWalk.getNameString())) {
-						objects.put(treeWalk.getNameString(), treeWalk.getObjectId(0));
-					}
+			// `basePath`, and put them into `objects`. Only the object listed now counts. A side
+			// branch may have changed it to something which was never merged.
+			for (TreeListingCache.Entry each : listBasePath(commit)) {
+				FileEntry entry = entries.get(each.getName());
+				if (targets.contains(each.getName())
+						&& (entry.getObjectId() == null || entry.getObjectId().equals(each.getObjectId()))) {
+					objects.put(each.getName(), each.getObjectId());
 				}
-			};
+			}
 
 			// Remove every blob and tree from `objects` if any of parent commits have a
 			// object whose path and id is identical with the blob or the tree. It means the
 			// blob or tree is not changed so we are not interested in it.
-			TreeWalkHandler objectRemover = new TreeWalkHandler() {
-				@Override
-				public void handle(TreeWalk treeWalk) {
-					if (treeWalk.getObjectId(0).equals(objects.get(treeWalk.getNameString()))) {
-						objects.remove(treeWalk.getNameString());
-					}
-				}
-			};
-
-			// Choose only "interest" objects from the blobs and trees. We are interested in
-			// blobs and trees which has change between the last commit and the current commit.
-			traverseTree(commit, objectCollector);
 			for (RevCommit parent : commit.getParents()) {
+				if (objects.isEmpty()) {
+					break;
+				}
 				RevCommit fixedParent = fixRevCommitNoTree(parent);
-				traverseTree(fixedParent, objectRemover);
+				for (TreeListingCache.Entry each : listBasePath(fixedParent)) {
+					if (each.getObjectId().equals(objects.get(each.getName()))) {
+						objects.remove(each.getName());
+					}
+				}
 			}
 			return objects;
 		}
 
-		private void traverseTree(RevCommit commit, TreeWalkHandler handler) throws IOException {
-			TreeWalk treeWalk;
+		/*
+		 * commit 의 basePath 에 있는 entry 들. 같은 subtree 를 가진 commit 들은 한 번만 읽는다.
+		 */
+		private List<TreeListingCache.Entry> listBasePath(RevCommit commit) throws IOException {
 			if (StringUtils.isEmpty(basePath)) {
-				treeWalk = new TreeWalk(repository);
-				treeWalk.addTree(commit.getTree());
-			} else {
-				treeWalk = TreeWalk.forPath(repository, basePath, commit.getTree());
-				if (treeWalk == null) {
-					return;
-				}
-				treeWalk.enterSubtree();
+				return listTree(revWalk.getObjectReader(), commit.getTree());
 			}
-			while (treeWalk.next()) {
-				handler.handle(treeWalk);
+			TreeWalk treeWalk = TreeWalk.forPath(revWalk.getObjectReader(), basePath, commit.getTree());
+			if (treeWalk == null || !treeWalk.isSubtree()) {
+				return Collections.emptyList();
 			}
+			return listTree(revWalk.getObjectReader(), treeWalk.getObjectId(0));
 		}
 
 		/*
@@ -305,31 +844,26 @@ public class OnlineLsCommand {
 			return commit;
 		}
 
+		/*
+		 * commit 은 모두 revWalk 에서 나온 것이므로 새 walk 를 만들지 않고 그 자리에서 header 를 읽는다
+		 */
 		private RevCommit fixRevCommit(RevCommit commit) {
-			RevWalk revWalk = new RevWalk(repository);
 			try {
-				return revWalk.parseCommit(commit);
+				revWalk.parseHeaders(commit);
+				return commit;
 			} catch (IOException e) {
 				throw new RuntimeException(e);
 			}
 		}
 
 		/*
-		 * Now, every objects in `objects` are interested. Get metadata from the objects, put
-		 * them into `found` and remove from `targets`.
+		 * Now, every objects in `objects` are interested. Put the metadata from the commit into
+		 * the entries and remove them from `targets`.
 		 */
 		private void found(RevCommit revCommit, Map<String, ObjectId> objects) {
 			for (String path : objects.keySet()) {
-				FileEntry fileEntry = new FileEntry();
-				fileEntry.setPath(path);
-
-				//revCommit.getShortMessage()
-				// revCommit.getCommitterIdent().getName()
-
-//				data.put("createdDate", revCommit.getCommitTime() * 1000l);
-//				data.put("author", revCommit.getAuthorIdent().getName());
-
-				found.put(path, fileEntry);
+				FileEntry fileEntry = entries.get(path);
+				fileEntry.setCommitId(revCommit.getName());
 				targets.remove(path);
 			}
 		}
@@ -343,23 +877,16 @@ public class OnlineLsCommand {
 				return false;
 			}
 
-			RevWalk revWalk = new RevWalk(repository);
-			RevTree revTree = revWalk.parseTree(objectId);
-			TreeWalk treeWalk = new TreeWalk(repository);
-			treeWalk.addTree(revTree);
-
-			while (treeWalk.next()) {
-				if (treeWalk.getPathString().equals(path) && !treeWalk.isSubtree()) {
-					return true;
-				}
+			RevWalk revWalk = borrowWalk();
+			try {
+				TreeWalk treeWalk = TreeWalk.forPath(revWalk.getObjectReader(), path, revWalk.parseTree(objectId));
+				return treeWalk != null && !treeWalk.isSubtree();
+			} finally {
+				release(revWalk);
 			}
 		} catch (IOException e) {
-			e.printStackTrace();
+			listener.onFailure(Phase.RESOLVE, e);
 		}
 		return false;
 	}
-
-	public static interface TreeWalkHandler {
-		void handle(TreeWalk treeWalk);
-	}
 }
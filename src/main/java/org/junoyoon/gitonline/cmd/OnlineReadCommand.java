@@ -0,0 +1,146 @@
+package org.junoyoon.gitonline.cmd;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.junoyoon.gitonline.model.BlobContent;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Read the content of a file at a revision as a stream.
+ * <p/>
+ * Large blobs are inflated from the pack while the stream is read, so they are never held in
+ * memory as a whole and the first bytes can be sent before the rest is inflated.
+ */
+public class OnlineReadCommand {
+
+	private Repository repository;
+	private RepositoryManager repositoryManager;
+
+	public OnlineReadCommand(Repository repository) {
+		this.repository = repository;
+	}
+
+	/**
+	 * Borrow the readers from {@code repositoryManager} instead of creating new ones for every call.
+	 */
+	public OnlineReadCommand setRepositoryManager(RepositoryManager repositoryManager) {
+		this.repositoryManager = repositoryManager;
+		return this;
+	}
+
+	/**
+	 * @return the whole content of {@code path}, or {@code null} if it is not a file at {@code revision}
+	 */
+	public BlobContent read(String revision, String path) throws IOException {
+		return read(revision, path, 0, -1);
+	}
+
+	/**
+	 * Read {@code length} bytes of {@code path} from {@code offset}. The range is cut at the end of
+	 * the file, and a negative {@code length} reads to the end.
+	 *
+	 * @param revision branch, tag or commit id. {@code null} means HEAD
+	 * @return the content, or {@code null} if {@code path} is not a file at {@code revision}
+	 * @throws IllegalArgumentException if {@code offset} is negative or after the end of the file
+	 */
+	public BlobContent read(String revision, String path, long offset, long length) throws IOException {
+		if (offset < 0) {
+			throw new IllegalArgumentException("offset should not be negative : " + offset);
+		}
+		ObjectId commitId = repository.resolve(revision == null ? Constants.HEAD : revision);
+		if (commitId == null) {
+			return null;
+		}
+
+		ObjectReader reader = borrowReader();
+		InputStream in = null;
+		try {
+			RevWalk revWalk = new RevWalk(reader);
+			TreeWalk treeWalk = TreeWalk.forPath(reader, path, revWalk.parseTree(commitId));
+			if (treeWalk == null || treeWalk.isSubtree() || treeWalk.getFileMode(0) == FileMode.GITLINK) {
+				release(reader);
+				return null;
+			}
+
+			ObjectId blobId = treeWalk.getObjectId(0);
+			ObjectLoader loader = reader.open(blobId, Constants.OBJ_BLOB);
+			long size = loader.getSize();
+			if (offset > size) {
+				throw new IllegalArgumentException("offset " + offset + " is after the end of " + path + " : " + size);
+			}
+			long available = size - offset;
+			if (length < 0 || length > available) {
+				length = available;
+			}
+
+			// small blob 은 이미 byte[] 로 읽혀 있고, large blob 은 읽는 만큼만 pack 에서 inflate 된다
+			in = new ReleasingInputStream(loader.openStream(), reader);
+			IOUtils.skipFully(in, offset);
+			return new BlobContent(blobId, treeWalk.getFileMode(0), size, offset, length, new BoundedInputStream(in, length));
+		} catch (IOException e) {
+			closeOrRelease(in, reader);
+			throw e;
+		} catch (RuntimeException e) {
+			closeOrRelease(in, reader);
+			throw e;
+		}
+	}
+
+	private void closeOrRelease(InputStream in, ObjectReader reader) {
+		if (in == null) {
+			release(reader);
+		} else {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	private ObjectReader borrowReader() {
+		if (repositoryManager == null) {
+			return repository.newObjectReader();
+		}
+		return repositoryManager.borrowReader(repository);
+	}
+
+	private void release(ObjectReader reader) {
+		if (repositoryManager == null) {
+			reader.release();
+		} else {
+			repositoryManager.release(repository, reader);
+		}
+	}
+
+	/*
+	 * large blob 의 stream 은 reader 를 통해 pack 을 읽으므로 stream 을 닫을 때 reader 를 돌려준다
+	 */
+	private class ReleasingInputStream extends FilterInputStream {
+		private ObjectReader reader;
+
+		ReleasingInputStream(InputStream in, ObjectReader reader) {
+			super(in);
+			this.reader = reader;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				if (reader != null) {
+					release(reader);
+					reader = null;
+				}
+			}
+		}
+	}
+}
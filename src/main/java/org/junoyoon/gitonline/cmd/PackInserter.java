@@ -0,0 +1,461 @@
+package org.junoyoon.gitonline.cmd;
+
+import com.google.common.io.ByteStreams;
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.ObjectDirectory;
+import org.eclipse.jgit.internal.storage.file.PackIndexWriter;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.CoreConfig;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.transport.PackParser;
+import org.eclipse.jgit.transport.PackedObjectInfo;
+import org.eclipse.jgit.util.NB;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Write the inserted objects into a single new pack and its index instead of one loose file each.
+ * <p/>
+ * Objects are deflated into a temporary pack file as they are inserted, so large blobs are streamed
+ * and never held in memory. Objects which the repository already has are not written again. {@link #flush()} completes the pack, writes a version 2 index next to
+ * it and registers both with the object directory, after which they can be read like any other
+ * pack. Until then the inserted trees and commits can be read only through {@link #newReader()},
+ * and the inserted blobs not at all.
+ * <p/>
+ * A flushed pack has a {@code .keep} file until the inserter is released, so that a repack running
+ * at the same time does not delete it before a ref points to its objects.
+ * <p/>
+ * Like the other inserters, it must be used by one thread at a time.
+ */
+public class PackInserter extends ObjectInserter {
+
+	/**
+	 * Streams up to this size are read into memory, so that an object already in the pack is
+	 * detected before it is written again.
+	 */
+	private static final int STREAM_BUFFER_LIMIT = 64 * 1024;
+
+	private static final int HEADER_LENGTH = 12;
+
+	private final ObjectDirectory db;
+	private final int compression;
+
+	private File tmpPack;
+	private FileChannel channel;
+	private CountingOutputStream out;
+	private Deflater deflater;
+	private final List<PackedObjectInfo> written = new ArrayList<PackedObjectInfo>();
+	private final Map<ObjectId, PackedObjectInfo> writtenIds = new HashMap<ObjectId, PackedObjectInfo>();
+	// blob 이 아닌 object 는 tree 를 다시 쓸 때 flush 전에 읽어야 하므로 내용을 가지고 있는다
+	private final Map<ObjectId, ObjectLoader> cached = new HashMap<ObjectId, ObjectLoader>();
+	private final List<File> keeps = new ArrayList<File>();
+
+	public PackInserter(FileRepository repository) {
+		this.db = repository.getObjectDatabase();
+		this.compression = repository.getConfig().get(CoreConfig.KEY).getCompression();
+	}
+
+	@Override
+	public ObjectId insert(int type, byte[] data, int off, int len) throws IOException {
+		ObjectId id = idFor(type, data, off, len);
+		if (writtenIds.containsKey(id) || db.has(id)) {
+			return id;
+		}
+		long offset = beginObject(type, len);
+		CRC32 crc = new CRC32();
+		crc.update(out.header, 0, out.headerLength);
+		DeflaterOutputStream deflated = newDeflaterStream(crc);
+		deflated.write(data, off, len);
+		deflated.finish();
+		endObject(id, type, offset, crc, type == Constants.OBJ_BLOB ? null : copyOf(data, off, len));
+		return id;
+	}
+
+	@Override
+	public ObjectId insert(int type, long len, InputStream in) throws IOException {
+		if (type != Constants.OBJ_BLOB || len <= STREAM_BUFFER_LIMIT) {
+			byte[] data = new byte[(int) len];
+			ByteStreams.readFully(in, data);
+			return insert(type, data, 0, data.length);
+		}
+
+		MessageDigest md = digest();
+		md.update(Constants.encodedTypeString(type));
+		md.update((byte) ' ');
+		md.update(Constants.encodeASCII(len));
+		md.update((byte) 0);
+
+		long offset = beginObject(type, len);
+		CRC32 crc = new CRC32();
+		crc.update(out.header, 0, out.headerLength);
+		DeflaterOutputStream deflated = newDeflaterStream(crc);
+		byte[] buffer = buffer();
+		long remaining = len;
+		try {
+			while (remaining > 0) {
+				int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+				if (n < 0) {
+					throw new EOFException("Stream ended " + remaining + " bytes before the declared length " + len);
+				}
+				md.update(buffer, 0, n);
+				deflated.write(buffer, 0, n);
+				remaining -= n;
+			}
+			deflated.finish();
+		} catch (IOException e) {
+			// 반쯤 쓴 object 가 pack 에 남으면 뒤의 object 들을 읽을 수 없다
+			truncate(offset);
+			throw e;
+		} catch (RuntimeException e) {
+			truncate(offset);
+			throw e;
+		}
+
+		ObjectId id = ObjectId.fromRaw(md.digest());
+		if (writtenIds.containsKey(id) || db.has(id)) {
+			// 같은 내용이 이미 pack 이나 저장소에 있으므로 방금 쓴 것을 잘라낸다
+			truncate(offset);
+			return id;
+		}
+		endObject(id, type, offset, crc, null);
+		return id;
+	}
+
+	/**
+	 * @return a reader which sees the trees and commits inserted but not flushed yet, besides the
+	 * objects of the repository. It must be released, and used on the thread using this inserter.
+	 */
+	public ObjectReader newReader() {
+		return new PendingObjectReader(db.newReader());
+	}
+
+	/**
+	 * A received pack is already a pack, so it is parsed into a pack of its own by the object
+	 * directory, apart from the pack of this inserter.
+	 */
+	@Override
+	public PackParser newPackParser(InputStream in) throws IOException {
+		ObjectInserter inserter = db.newInserter();
+		try {
+			return inserter.newPackParser(in);
+		} finally {
+			inserter.release();
+		}
+	}
+
+	/**
+	 * Complete the pack and make its objects readable through the repository. Objects inserted
+	 * afterwards go into another pack.
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (written.isEmpty()) {
+			return;
+		}
+		out.flush();
+		channel.write(ByteBuffer.wrap(packHeader(written.size())), 0);
+		byte[] checksum = checksum();
+		channel.write(ByteBuffer.wrap(checksum), channel.size());
+		channel.force(true);
+		channel.close();
+		channel = null;
+
+		Collections.sort(written);
+		File packDir = new File(db.getDirectory(), "pack");
+		String name = packName();
+		File pack = new File(packDir, "pack-" + name + ".pack");
+		File index = new File(packDir, "pack-" + name + ".idx");
+		if (pack.exists()) {
+			// 같은 object 들로 이미 만들어진 pack 이 있다
+			deleteTemporaryFile();
+		} else {
+			File tmpIndex = new File(packDir, tmpPack.getName().replaceAll("\\.pack$", ".idx"));
+			writeIndex(tmpIndex, checksum);
+			// git 은 pack-X.keep 을, JGit 3.3 의 GC 는 pack-X.pack.keep 을 본다
+			keep(new File(packDir, "pack-" + name + ".keep"));
+			keep(new File(packDir, "pack-" + name + ".pack.keep"));
+			if (!tmpPack.renameTo(pack) || !tmpIndex.renameTo(index)) {
+				IOException e = new IOException("Cannot move " + tmpPack + " to " + pack);
+				pack.delete();
+				tmpIndex.delete();
+				deleteTemporaryFile();
+				throw e;
+			}
+			db.openPack(pack);
+		}
+		tmpPack = null;
+		written.clear();
+		writtenIds.clear();
+		cached.clear();
+	}
+
+	/**
+	 * Discard the objects which were not flushed, and let the flushed packs be repacked.
+	 */
+	@Override
+	public void release() {
+		for (File each : keeps) {
+			each.delete();
+		}
+		keeps.clear();
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// ignore
+			}
+			channel = null;
+		}
+		deleteTemporaryFile();
+		if (deflater != null) {
+			deflater.end();
+			deflater = null;
+		}
+		written.clear();
+		writtenIds.clear();
+		cached.clear();
+	}
+
+	/*
+	 * 처음 쓰는 object 이면 pack 파일을 만들고 header 자리를 비워 둔다. object 의 type 과 크기를 쓰고 그 위치를 반환한다.
+	 */
+	private long beginObject(int type, long len) throws IOException {
+		if (channel == null) {
+			File packDir = new File(db.getDirectory(), "pack");
+			if (!packDir.isDirectory() && !packDir.mkdirs()) {
+				throw new IOException("Cannot create " + packDir);
+			}
+			tmpPack = File.createTempFile("insert_", ".pack", packDir);
+			channel = new RandomAccessFile(tmpPack, "rw").getChannel();
+			out = new CountingOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+			out.write(packHeader(0));
+		}
+		long offset = out.count;
+		out.writeObjectHeader(type, len);
+		return offset;
+	}
+
+	/*
+	 * offset 부터 쓴 내용을 버린다
+	 */
+	private void truncate(long offset) throws IOException {
+		out.flush();
+		channel.truncate(offset);
+		channel.position(offset);
+		out.count = offset;
+	}
+
+	private void endObject(ObjectId id, int type, long offset, CRC32 crc, byte[] data) {
+		PackedObjectInfo info = new PackedObjectInfo(id);
+		info.setOffset(offset);
+		info.setCRC((int) crc.getValue());
+		written.add(info);
+		writtenIds.put(info, info);
+		if (data != null) {
+			cached.put(id, new ObjectLoader.SmallObject(type, data));
+		}
+	}
+
+	private DeflaterOutputStream newDeflaterStream(CRC32 crc) {
+		if (deflater == null) {
+			deflater = new Deflater(compression);
+		} else {
+			deflater.reset();
+		}
+		return new DeflaterOutputStream(new CheckedOutputStream(out, crc), deflater, 8192);
+	}
+
+	private byte[] packHeader(int objectCount) {
+		byte[] header = new byte[HEADER_LENGTH];
+		System.arraycopy(Constants.PACK_SIGNATURE, 0, header, 0, 4);
+		NB.encodeInt32(header, 4, 2);
+		NB.encodeInt32(header, 8, objectCount);
+		return header;
+	}
+
+	/*
+	 * header 의 object 수를 마지막에 쓰므로 checksum 은 파일을 다시 읽어서 구한다
+	 */
+	private byte[] checksum() throws IOException {
+		MessageDigest md = digest();
+		ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+		long position = 0;
+		long size = channel.size();
+		while (position < size) {
+			buffer.clear();
+			int n = channel.read(buffer, position);
+			if (n < 0) {
+				throw new EOFException(tmpPack.getPath());
+			}
+			md.update(buffer.array(), 0, n);
+			position += n;
+		}
+		return md.digest();
+	}
+
+	/*
+	 * git 과 같이 정렬된 object id 들의 SHA-1 을 pack 의 이름으로 쓴다
+	 */
+	private String packName() {
+		MessageDigest md = digest();
+		byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+		for (PackedObjectInfo each : written) {
+			each.copyRawTo(raw, 0);
+			md.update(raw);
+		}
+		return ObjectId.fromRaw(md.digest()).name();
+	}
+
+	private void keep(File keep) throws IOException {
+		FileOutputStream fos = new FileOutputStream(keep);
+		try {
+			fos.write(Constants.encode("online commit\n"));
+		} finally {
+			fos.close();
+		}
+		keeps.add(keep);
+	}
+
+	private void writeIndex(File index, byte[] checksum) throws IOException {
+		FileOutputStream fos = new FileOutputStream(index);
+		try {
+			OutputStream buffered = new BufferedOutputStream(fos);
+			PackIndexWriter.createVersion(buffered, 2).write(written, checksum);
+			buffered.flush();
+			fos.getChannel().force(true);
+		} finally {
+			fos.close();
+		}
+	}
+
+	private void deleteTemporaryFile() {
+		if (tmpPack != null) {
+			tmpPack.delete();
+			tmpPack = null;
+		}
+	}
+
+	private static byte[] copyOf(byte[] data, int off, int len) {
+		byte[] copy = new byte[len];
+		System.arraycopy(data, off, copy, 0, len);
+		return copy;
+	}
+
+	/*
+	 * pack 파일에 쓴 byte 수를 센다. 잘라낸 뒤에는 count 를 그 위치로 되돌린다.
+	 */
+	private static class CountingOutputStream extends FilterOutputStream {
+		long count;
+		final byte[] header = new byte[16];
+		int headerLength;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+
+		/*
+		 * type 과 크기를 pack 의 object header 형식으로 쓴다. CRC 계산을 위해 header 에 남겨 둔다.
+		 */
+		void writeObjectHeader(int type, long len) throws IOException {
+			int n = 0;
+			long size = len;
+			int c = (type << 4) | (int) (size & 0x0f);
+			size >>>= 4;
+			while (size > 0) {
+				header[n++] = (byte) (c | 0x80);
+				c = (int) (size & 0x7f);
+				size >>>= 7;
+			}
+			header[n++] = (byte) c;
+			headerLength = n;
+			write(header, 0, n);
+		}
+	}
+
+	private class PendingObjectReader extends ObjectReader {
+		private final ObjectReader delegate;
+
+		PendingObjectReader(ObjectReader delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public ObjectReader newReader() {
+			return new PendingObjectReader(delegate.newReader());
+		}
+
+		@Override
+		public Collection<ObjectId> resolve(AbbreviatedObjectId id) throws IOException {
+			Collection<ObjectId> found = new ArrayList<ObjectId>(delegate.resolve(id));
+			for (ObjectId each : writtenIds.keySet()) {
+				if (id.prefixCompare(each) == 0 && !found.contains(each)) {
+					found.add(each.copy());
+				}
+			}
+			return found;
+		}
+
+		@Override
+		public ObjectLoader open(AnyObjectId objectId, int typeHint) throws IOException {
+			ObjectLoader loader = cached.get(objectId);
+			if (loader == null) {
+				return delegate.open(objectId, typeHint);
+			}
+			if (typeHint != OBJ_ANY && loader.getType() != typeHint) {
+				throw new IncorrectObjectTypeException(objectId.copy(), typeHint);
+			}
+			return loader;
+		}
+
+		@Override
+		public Set<ObjectId> getShallowCommits() throws IOException {
+			return delegate.getShallowCommits();
+		}
+
+		@Override
+		public void release() {
+			delegate.release();
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package org.junoyoon.gitonline.cmd;
+
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keep repositories open, with their pack indexes loaded, and lend out {@link ObjectReader}s and
+ * {@link RevWalk}s which are reset and reused instead of being created for every request.
+ * <p/>
+ * Borrowed handles must be given back with {@link #release(Repository, RevWalk)} or
+ * {@link #release(Repository, ObjectReader)} and must not be used afterwards. {@link #close()}
+ * disposes every idle handle and closes every repository.
+ */
+public class RepositoryManager {
+
+	private final ConcurrentMap<File, Pool> pools = new ConcurrentHashMap<File, Pool>();
+	private final int maxIdle;
+
+	private final AtomicLong created = new AtomicLong();
+	private final AtomicLong reused = new AtomicLong();
+
+	public RepositoryManager() {
+		this(16);
+	}
+
+	/**
+	 * @param maxIdle how many idle readers and walks are kept for each repository
+	 */
+	public RepositoryManager(int maxIdle) {
+		this.maxIdle = maxIdle;
+	}
+
+	/**
+	 * @return the repository at {@code gitDir}, shared by every caller until {@link #close()}
+	 */
+	public FileRepository open(File gitDir) throws IOException {
+		Pool pool = pool(gitDir);
+		synchronized (pool) {
+			if (pool.repository == null) {
+				pool.repository = (FileRepository) new FileRepositoryBuilder().setGitDir(gitDir).setMustExist(true).build();
+			}
+			return pool.repository;
+		}
+	}
+
+	public RevWalk borrowRevWalk(Repository repository) {
+		Pool pool = pool(repository.getDirectory());
+		RevWalk revWalk = pool.walks.poll();
+		if (revWalk == null) {
+			created.incrementAndGet();
+			return new RevWalk(repository);
+		}
+		pool.idleWalks.decrementAndGet();
+		reused.incrementAndGet();
+		return revWalk;
+	}
+
+	public void release(Repository repository, RevWalk revWalk) {
+		// dispose() drops every parsed object but the walk, and its reader, can still be used
+		revWalk.dispose();
+		revWalk.setRevFilter(RevFilter.ALL);
+		revWalk.setTreeFilter(TreeFilter.ALL);
+		revWalk.sort(RevSort.NONE);
+		revWalk.setRetainBody(true);
+		Pool pool = pool(repository.getDirectory());
+		if (pool.idleWalks.incrementAndGet() <= maxIdle) {
+			pool.walks.add(revWalk);
+		} else {
+			pool.idleWalks.decrementAndGet();
+		}
+	}
+
+	public ObjectReader borrowReader(Repository repository) {
+		Pool pool = pool(repository.getDirectory());
+		ObjectReader reader = pool.readers.poll();
+		if (reader == null) {
+			created.incrementAndGet();
+			return repository.newObjectReader();
+		}
+		pool.idleReaders.decrementAndGet();
+		reused.incrementAndGet();
+		return reader;
+	}
+
+	public void release(Repository repository, ObjectReader reader) {
+		reader.release();
+		Pool pool = pool(repository.getDirectory());
+		if (pool.idleReaders.incrementAndGet() <= maxIdle) {
+			pool.readers.add(reader);
+		} else {
+			pool.idleReaders.decrementAndGet();
+		}
+	}
+
+	/**
+	 * @return number of readers and walks which had to be created
+	 */
+	public long getCreatedCount() {
+		return created.get();
+	}
+
+	/**
+	 * @return number of readers and walks which were lent out again
+	 */
+	public long getReusedCount() {
+		return reused.get();
+	}
+
+	public void close() {
+		for (Pool each : pools.values()) {
+			each.close();
+		}
+		pools.clear();
+	}
+
+	private Pool pool(File gitDir) {
+		File key = gitDir.getAbsoluteFile();
+		Pool pool = pools.get(key);
+		if (pool == null) {
+			Pool created = new Pool();
+			pool = pools.putIfAbsent(key, created);
+			if (pool == null) {
+				pool = created;
+			}
+		}
+		return pool;
+	}
+
+	private static class Pool {
+		final Queue<RevWalk> walks = new ConcurrentLinkedQueue<RevWalk>();
+		final Queue<ObjectReader> readers = new ConcurrentLinkedQueue<ObjectReader>();
+		final AtomicInteger idleWalks = new AtomicInteger();
+		final AtomicInteger idleReaders = new AtomicInteger();
+		FileRepository repository;
+
+		void close() {
+			RevWalk revWalk;
+			while ((revWalk = walks.poll()) != null) {
+				revWalk.release();
+			}
+			ObjectReader reader;
+			while ((reader = readers.poll()) != null) {
+				reader.release();
+			}
+			synchronized (this) {
+				if (repository != null) {
+					repository.close();
+					repository = null;
+				}
+			}
+		}
+	}
+}
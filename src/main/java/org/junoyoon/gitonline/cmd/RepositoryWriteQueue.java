@@ -0,0 +1,607 @@
+package org.junoyoon.gitonline.cmd;
+
+import org.eclipse.jgit.api.errors.ConcurrentRefUpdateException;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junoyoon.gitonline.index.ChangedPathIndex;
+import org.junoyoon.gitonline.index.LastCommitIndex;
+import org.junoyoon.gitonline.metrics.CommandListener;
+import org.junoyoon.gitonline.metrics.CommandMetrics;
+import org.junoyoon.gitonline.metrics.Phase;
+import org.junoyoon.gitonline.model.Change;
+import org.junoyoon.gitonline.model.User;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Serializes the commits to one repository.
+ * <p/>
+ * A writer enqueues its changeset and then competes for the write lock. Whoever holds the lock
+ * commits every changeset waiting at that moment, one on top of another, with a single object
+ * inserter flush and a single HEAD update. Each writer still gets its own commit or its own failure.
+ * <p/>
+ * HEAD is updated only if it still points to the commit the batch was built on. If a writer outside
+ * of this queue moved it, the batch is rebuilt on top of the new HEAD unless a changeset touches a
+ * path which was changed in between; such a changeset fails with {@link ChangesetConflictException}.
+ * If HEAD did not move but its lock was taken, the batch is tried again after a short random delay
+ * which doubles with every attempt, up to 200 milliseconds.
+ * <p/>
+ * A batch which stores many files, such as an import or a folder upload, writes its objects into a
+ * single new pack with {@link PackInserter} instead of a loose file per object.
+ * <p/>
+ * The phases of a batch are reported to the listener of every changeset in it, and the blobs of a
+ * changeset only to its own listener.
+ */
+public class RepositoryWriteQueue {
+
+	private static final long RETRY_BACKOFF_MILLIS = 5;
+	private static final long MAX_RETRY_BACKOFF_MILLIS = 200;
+
+	private static final ConcurrentMap<File, RepositoryWriteQueue> queues = new ConcurrentHashMap<File, RepositoryWriteQueue>();
+
+	private final Queue<Request> pending = new ConcurrentLinkedQueue<Request>();
+	private final ReentrantLock writeLock = new ReentrantLock();
+	private final Queue<IndexUpdate> indexUpdates = new ConcurrentLinkedQueue<IndexUpdate>();
+	private final ReentrantLock indexLock = new ReentrantLock();
+	private final OnlineChangesetCommand command = new OnlineChangesetCommand();
+	private volatile int maxBatchSize = 64;
+	private volatile int maxRetries = 5;
+	private volatile int unpackLimit = 100;
+	private volatile MaintenanceScheduler maintenanceScheduler;
+
+	private final AtomicLong requestCount = new AtomicLong();
+	private final AtomicLong batchCount = new AtomicLong();
+	private final AtomicLong totalWaitNanos = new AtomicLong();
+	private final AtomicLong maxWaitNanos = new AtomicLong();
+	private final AtomicLong retryCount = new AtomicLong();
+	private final AtomicLong conflictCount = new AtomicLong();
+	private final AtomicLong packCount = new AtomicLong();
+	private final AtomicLong indexFailureCount = new AtomicLong();
+
+	/**
+	 * @return the queue shared by every writer of the repository directory of {@code repo}
+	 */
+	public static RepositoryWriteQueue get(FileRepository repo) {
+		File key = repo.getDirectory().getAbsoluteFile();
+		RepositoryWriteQueue queue = queues.get(key);
+		if (queue == null) {
+			RepositoryWriteQueue created = new RepositoryWriteQueue();
+			queue = queues.putIfAbsent(key, created);
+			if (queue == null) {
+				queue = created;
+			}
+		}
+		return queue;
+	}
+
+	public static void remove(FileRepository repo) {
+		queues.remove(repo.getDirectory().getAbsoluteFile());
+	}
+
+	/**
+	 * @param maxRetries how many times a batch is rebased onto a HEAD moved by another writer
+	 *                   before giving up
+	 */
+	public RepositoryWriteQueue setMaxRetries(int maxRetries) {
+		this.maxRetries = maxRetries;
+		return this;
+	}
+
+	public RepositoryWriteQueue setMaxBatchSize(int maxBatchSize) {
+		this.maxBatchSize = maxBatchSize;
+		return this;
+	}
+
+	/**
+	 * Tell {@code maintenanceScheduler} about every batch committed, so that it can repack the
+	 * repository in the background. {@code null} leaves the maintenance to someone else.
+	 */
+	public RepositoryWriteQueue setMaintenanceScheduler(MaintenanceScheduler maintenanceScheduler) {
+		this.maintenanceScheduler = maintenanceScheduler;
+		return this;
+	}
+
+	/**
+	 * @param unpackLimit a batch storing at least this many files writes all of its objects into one
+	 *                    pack. Smaller batches write loose objects. Like git's {@code transfer.unpackLimit}.
+	 */
+	public RepositoryWriteQueue setUnpackLimit(int unpackLimit) {
+		this.unpackLimit = unpackLimit;
+		return this;
+	}
+
+	/**
+	 * Commit {@code changes} on top of HEAD. Blocks until the changeset has been committed,
+	 * either by this thread or by the writer which held the lock.
+	 */
+	public RevCommit commit(FileRepository repo, List<Change> changes, User author, User committer, String message) {
+		return commit(repo, changes, author, committer, message, CommandMetrics.getDefault());
+	}
+
+	/**
+	 * Commit {@code changes} on top of HEAD, reporting the timings and counts to {@code listener}.
+	 */
+	public RevCommit commit(FileRepository repo, List<Change> changes, User author, User committer, String message,
+							CommandListener listener) {
+		Request request = new Request(repo, changes, author, committer, message, listener);
+		pending.add(request);
+		commitPending(request);
+		if (request.failure != null) {
+			throw request.failure;
+		}
+		return request.commit;
+	}
+
+	/**
+	 * Enqueue {@code changes} and commit them on {@code executor} without blocking the caller.
+	 * <p/>
+	 * Changesets are committed in the order they were submitted, together with those of the
+	 * blocking writers, so a changeset submitted after another one by the same thread is always
+	 * committed on top of it.
+	 *
+	 * @return the commit, or the failure of the changeset
+	 */
+	public CompletableFuture<RevCommit> submit(FileRepository repo, List<Change> changes, User author, User committer,
+											   String message, CommandListener listener, Executor executor) {
+		final Request request = new Request(repo, changes, author, committer, message, listener);
+		pending.add(request);
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					commitPending(request);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// 다른 writer 가 이미 가져가지 않았다면 아무도 commit 하지 않는다
+			if (pending.remove(request)) {
+				request.fail(e);
+			}
+		}
+		// 호출한 쪽의 callback 이 write lock 을 잡은 thread 에서 실행되지 않도록 executor 에서 완료한다
+		return request.future.whenCompleteAsync(new BiConsumer<RevCommit, Throwable>() {
+			@Override
+			public void accept(RevCommit commit, Throwable failure) {
+			}
+		}, executor);
+	}
+
+	/*
+	 * request 가 끝날 때까지 쌓인 요청들을 commit 한다. 다른 writer 가 가져간 요청은 그 writer 가 lock 을 놓기 전에 끝낸다.
+	 */
+	private void commitPending(Request request) {
+		writeLock.lock();
+		try {
+			while (!request.done) {
+				List<Request> batch = drain();
+				if (batch.isEmpty()) {
+					request.fail(new IllegalStateException("Changeset was dequeued but not committed"));
+					break;
+				}
+				process(batch);
+			}
+		} finally {
+			writeLock.unlock();
+		}
+		updateIndexes();
+	}
+
+	private List<Request> drain() {
+		List<Request> batch = new ArrayList<Request>();
+		Request each;
+		while (batch.size() < maxBatchSize && (each = pending.poll()) != null) {
+			batch.add(each);
+		}
+		return batch;
+	}
+
+	private void process(List<Request> batch) {
+		if (batch.isEmpty()) {
+			return;
+		}
+		long now = System.nanoTime();
+		for (Request each : batch) {
+			recordWait(now - each.enqueuedAt);
+		}
+		requestCount.addAndGet(batch.size());
+		batchCount.incrementAndGet();
+
+		FileRepository repo = batch.get(0).repo;
+		Set<CommandListener> listeners = listeners(batch);
+		PackInserter packInserter = null;
+		if (countPuts(batch) >= unpackLimit) {
+			packInserter = new PackInserter(repo);
+			packCount.incrementAndGet();
+		}
+		CountingInserter inserter = new CountingInserter(packInserter != null ? packInserter : repo.newObjectInserter());
+		// pack 에 쓴 tree 와 commit 은 flush 전까지 packInserter 의 reader 로만 읽을 수 있다
+		ObjectReader reader = packInserter != null ? packInserter.newReader() : repo.newObjectReader();
+		RevWalk revWalk = new RevWalk(repo);
+		try {
+			long started = System.nanoTime();
+			ObjectId headId = repo.resolve(Constants.HEAD + "^{commit}"); //$NON-NLS-1$
+			report(listeners, Phase.RESOLVE, started);
+			for (Request each : batch) {
+				started = System.nanoTime();
+				long inserted = inserter.getCount();
+				try {
+					each.blobs = command.insertBlobs(inserter, each.changes);
+				} catch (Exception e) {
+					each.fail(e);
+				}
+				each.listener.onPhase(Phase.BLOB_INSERT, System.nanoTime() - started);
+				each.listener.onObjectsInserted(inserter.getCount() - inserted);
+			}
+			for (int attempt = 0; ; attempt++) {
+				started = System.nanoTime();
+				long inserted = inserter.getCount();
+				List<Request> committed = chain(repo, reader, inserter, headId, batch);
+				if (committed.isEmpty()) {
+					return;
+				}
+				inserter.flush();
+				report(listeners, Phase.TREE_WRITE, started);
+				for (CommandListener each : listeners) {
+					each.onObjectsInserted(inserter.getCount() - inserted);
+				}
+				started = System.nanoTime();
+				try {
+					command.updateHead(repo, committed.get(committed.size() - 1).commitId, headId);
+				} catch (ConcurrentRefUpdateException e) {
+					report(listeners, Phase.REF_UPDATE, started);
+					if (attempt >= maxRetries) {
+						throw e;
+					}
+					retryCount.incrementAndGet();
+					for (CommandListener each : listeners) {
+						each.onRefLockRetry();
+					}
+					started = System.nanoTime();
+					ObjectId newHeadId = rebase(repo, headId, committed);
+					report(listeners, Phase.RESOLVE, started);
+					if (newHeadId == headId) {
+						backoff(attempt);
+					}
+					headId = newHeadId;
+					continue;
+				}
+				report(listeners, Phase.REF_UPDATE, started);
+				for (Request each : committed) {
+					each.complete(revWalk.parseCommit(each.commitId));
+				}
+				indexUpdates.add(new IndexUpdate(repo, headId, committed, listeners));
+				MaintenanceScheduler scheduler = maintenanceScheduler;
+				if (scheduler != null) {
+					scheduler.onCommit(repo, committed.size());
+				}
+				return;
+			}
+		} catch (Exception e) {
+			failUndone(batch, e);
+		} catch (Error e) {
+			// 기다리는 writer 들이 영원히 기다리지 않도록 끝내고 던진다
+			failUndone(batch, e);
+			throw e;
+		} finally {
+			revWalk.dispose();
+			reader.release();
+			inserter.release();
+		}
+	}
+
+	private void failUndone(List<Request> batch, Throwable e) {
+		for (Request each : batch) {
+			if (!each.done) {
+				each.fail(e);
+			}
+		}
+	}
+
+	private int countPuts(List<Request> batch) {
+		int puts = 0;
+		for (Request request : batch) {
+			for (Change each : request.changes) {
+				if (each.getType() == Change.Type.PUT) {
+					puts++;
+				}
+			}
+		}
+		return puts;
+	}
+
+	/*
+	 * 한 batch 의 요청들이 같은 listener 를 쓰면 한 번만 알린다
+	 */
+	private Set<CommandListener> listeners(List<Request> batch) {
+		Set<CommandListener> listeners = Collections.newSetFromMap(new IdentityHashMap<CommandListener, Boolean>());
+		for (Request each : batch) {
+			listeners.add(each.listener);
+		}
+		return listeners;
+	}
+
+	private void report(Set<CommandListener> listeners, Phase phase, long started) {
+		long elapsed = System.nanoTime() - started;
+		for (CommandListener each : listeners) {
+			each.onPhase(phase, elapsed);
+		}
+	}
+
+	/*
+	 * write lock 을 놓은 뒤에 commit 된 순서대로 index 에 반영한다. 다른 thread 가 반영하고 있으면 그 thread 에 맡긴다.
+	 */
+	private void updateIndexes() {
+		while (!indexUpdates.isEmpty() && indexLock.tryLock()) {
+			try {
+				IndexUpdate each;
+				while ((each = indexUpdates.poll()) != null) {
+					each.run();
+				}
+			} finally {
+				indexLock.unlock();
+			}
+		}
+	}
+
+	/*
+	 * 아직 끝나지 않은 요청들을 headId 위에 차례로 commit 한다. HEAD 는 옮기지 않는다.
+	 */
+	private List<Request> chain(FileRepository repo, ObjectReader reader, ObjectInserter inserter, ObjectId headId,
+								List<Request> batch) {
+		List<Request> committed = new ArrayList<Request>();
+		ObjectId parentId = headId;
+		for (Request each : batch) {
+			if (each.done) {
+				continue;
+			}
+			try {
+				ObjectId treeId = command.writeTree(reader, inserter, parentId, each.changes, each.blobs);
+				parentId = command.insertCommit(inserter, treeId, parentId,
+						command.toPersonIdent(repo, each.author), command.toPersonIdent(repo, each.committer), each.message);
+				each.commitId = parentId;
+				committed.add(each);
+			} catch (Exception e) {
+				each.fail(e);
+			}
+		}
+		return committed;
+	}
+
+	/*
+	 * 다른 writer 가 HEAD 를 옮겼다. 그 사이에 바뀐 path 를 건드리는 요청은 충돌로 끝내고
+	 * 나머지는 새 HEAD 위에 다시 commit 될 수 있도록 새 HEAD 를 반환한다. HEAD 가 그대로면 oldHeadId 를 반환한다.
+	 */
+	private ObjectId rebase(FileRepository repo, ObjectId oldHeadId, List<Request> committed) throws IOException {
+		ObjectId newHeadId = repo.resolve(Constants.HEAD + "^{commit}"); //$NON-NLS-1$
+		if (newHeadId == null || newHeadId.equals(oldHeadId)) {
+			// lock 을 잡지 못했을 뿐 HEAD 는 그대로다.
+			return oldHeadId;
+		}
+		Set<String> changed = command.changedPaths(repo, oldHeadId, newHeadId);
+		for (Request each : committed) {
+			Set<String> conflicts = command.conflicts(command.touchedPaths(each.changes), changed);
+			if (!conflicts.isEmpty()) {
+				conflictCount.incrementAndGet();
+				each.fail(new ChangesetConflictException(conflicts));
+			}
+		}
+		return newHeadId;
+	}
+
+	/*
+	 * HEAD 는 그대로이고 ref lock 만 잡지 못했다. lock 을 잡은 쪽이 끝낼 시간을 주기 위해 시도할 때마다 두 배로,
+	 * MAX_RETRY_BACKOFF_MILLIS 까지, 여러 writer 가 같은 순간에 다시 부딪히지 않도록 무작위로 기다린다.
+	 */
+	private void backoff(int attempt) {
+		long limit = Math.min(MAX_RETRY_BACKOFF_MILLIS, RETRY_BACKOFF_MILLIS << Math.min(attempt, 16));
+		try {
+			Thread.sleep(ThreadLocalRandom.current().nextLong(limit / 2, limit + 1));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void recordWait(long waitNanos) {
+		totalWaitNanos.addAndGet(waitNanos);
+		long max;
+		while (waitNanos > (max = maxWaitNanos.get()) && !maxWaitNanos.compareAndSet(max, waitNanos)) {
+			// retry
+		}
+	}
+
+	/**
+	 * @return number of changesets waiting to be committed
+	 */
+	public int getQueueDepth() {
+		return pending.size();
+	}
+
+	public long getRequestCount() {
+		return requestCount.get();
+	}
+
+	/**
+	 * @return number of HEAD updates, each of which committed one or more changesets
+	 */
+	public long getBatchCount() {
+		return batchCount.get();
+	}
+
+	/**
+	 * @return number of times a batch was rebased because HEAD was moved by another writer
+	 */
+	public long getRetryCount() {
+		return retryCount.get();
+	}
+
+	public long getConflictCount() {
+		return conflictCount.get();
+	}
+
+	/**
+	 * @return number of batches whose objects were written into a pack
+	 */
+	public long getPackCount() {
+		return packCount.get();
+	}
+
+	/**
+	 * @return number of batches whose commits could not be added to the indexes. The commits are
+	 * not affected, and the reads fall back to the history for them.
+	 */
+	public long getIndexFailureCount() {
+		return indexFailureCount.get();
+	}
+
+	public long getAverageWaitMillis() {
+		long count = requestCount.get();
+		return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get() / count);
+	}
+
+	public long getMaxWaitMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+	}
+
+	private static class Request {
+		final FileRepository repo;
+		final List<Change> changes;
+		final User author;
+		final User committer;
+		final String message;
+		final CommandListener listener;
+		final long enqueuedAt = System.nanoTime();
+		final CompletableFuture<RevCommit> future = new CompletableFuture<RevCommit>();
+		Map<Change, ObjectId> blobs;
+		ObjectId commitId;
+		volatile RevCommit commit;
+		volatile RuntimeException failure;
+		volatile boolean done;
+
+		Request(FileRepository repo, List<Change> changes, User author, User committer, String message,
+				CommandListener listener) {
+			this.repo = repo;
+			this.changes = changes;
+			this.author = author;
+			this.committer = committer;
+			this.message = message;
+			this.listener = listener;
+		}
+
+		void complete(RevCommit commit) {
+			this.commit = commit;
+			this.done = true;
+			future.complete(commit);
+		}
+
+		void fail(Throwable e) {
+			this.failure = e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+			this.done = true;
+			future.completeExceptionally(failure);
+		}
+	}
+
+	/*
+	 * 한 batch 의 새 commit 들. 실패해도 index 는 나중에 다시 만들어지므로 commit 에는 영향이 없고, listener 에만 알린다.
+	 */
+	private class IndexUpdate {
+		final FileRepository repo;
+		final ObjectId headId;
+		final List<ObjectId> commitIds = new ArrayList<ObjectId>();
+		final Set<CommandListener> listeners;
+
+		IndexUpdate(FileRepository repo, ObjectId headId, List<Request> committed, Set<CommandListener> listeners) {
+			this.repo = repo;
+			this.headId = headId;
+			for (Request each : committed) {
+				commitIds.add(each.commitId);
+			}
+			this.listeners = listeners;
+		}
+
+		void run() {
+			long started = System.nanoTime();
+			LastCommitIndex lastCommitIndex = new LastCommitIndex(repo);
+			ChangedPathIndex changedPathIndex = ChangedPathIndex.get(repo);
+			ObjectId parentId = headId;
+			try {
+				for (ObjectId each : commitIds) {
+					changedPathIndex.add(each);
+					if (parentId != null) {
+						lastCommitIndex.onCommit(parentId, each);
+					}
+					parentId = each;
+				}
+			} catch (IOException e) {
+				indexFailureCount.incrementAndGet();
+				for (CommandListener each : listeners) {
+					each.onFailure(Phase.INDEX, e);
+				}
+			}
+			report(listeners, Phase.INDEX, started);
+		}
+	}
+
+	/*
+	 * 저장한 object 의 수를 센다. 한 batch 는 lock 을 잡은 한 thread 에서만 쓰므로 count 는 공유되지 않는다.
+	 */
+	private static class CountingInserter extends ObjectInserter.Filter {
+		private final ObjectInserter delegate;
+		private long count;
+
+		CountingInserter(ObjectInserter delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		protected ObjectInserter delegate() {
+			return delegate;
+		}
+
+		long getCount() {
+			return count;
+		}
+
+		@Override
+		public ObjectId insert(int type, byte[] data) throws IOException {
+			count++;
+			return delegate.insert(type, data);
+		}
+
+		@Override
+		public ObjectId insert(int type, byte[] data, int off, int len) throws IOException {
+			count++;
+			return delegate.insert(type, data, off, len);
+		}
+
+		@Override
+		public ObjectId insert(int type, long len, InputStream in) throws IOException {
+			count++;
+			return delegate.insert(type, len, in);
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package org.junoyoon.gitonline.cmd;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.junoyoon.gitonline.metrics.CommandListener;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Parsed entries of trees, keyed by the tree id.
+ * <p/>
+ * A tree never changes once written, so a listing is valid for every branch, commit and
+ * repository which contains the same tree. The least recently used listings are evicted once
+ * their estimated size exceeds the budget given to the constructor.
+ */
+public class TreeListingCache {
+
+	public static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+
+	private final Cache<ObjectId, List<Entry>> cache;
+
+	public TreeListingCache() {
+		this(DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * @param maxBytes estimated heap size of all cached listings
+	 */
+	public TreeListingCache(long maxBytes) {
+		cache = CacheBuilder.newBuilder()
+				.maximumWeight(maxBytes)
+				.weigher(new Weigher<ObjectId, List<Entry>>() {
+					@Override
+					public int weigh(ObjectId treeId, List<Entry> entries) {
+						int weight = 96;
+						for (Entry each : entries) {
+							weight += each.weight();
+						}
+						return weight;
+					}
+				})
+				.recordStats()
+				.build();
+	}
+
+	/**
+	 * @return the entries of the tree in the tree order. The list can not be modified.
+	 */
+	public List<Entry> get(ObjectReader reader, AnyObjectId treeId) throws IOException {
+		return get(reader, treeId, null);
+	}
+
+	/**
+	 * @param listener told about every tree which is read because it is not in the cache, or {@code null}
+	 * @return the entries of the tree in the tree order. The list can not be modified.
+	 */
+	public List<Entry> get(final ObjectReader reader, AnyObjectId treeId, final CommandListener listener) throws IOException {
+		final ObjectId key = treeId.copy();
+		try {
+			return cache.get(key, new Callable<List<Entry>>() {
+				@Override
+				public List<Entry> call() throws IOException {
+					if (listener != null) {
+						listener.onObjectsRead(1);
+					}
+					return parse(reader, key);
+				}
+			});
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	public long getHitCount() {
+		return cache.stats().hitCount();
+	}
+
+	public long getMissCount() {
+		return cache.stats().missCount();
+	}
+
+	public long getEvictionCount() {
+		return cache.stats().evictionCount();
+	}
+
+	public long size() {
+		return cache.size();
+	}
+
+	public void invalidateAll() {
+		cache.invalidateAll();
+	}
+
+	/**
+	 * Read the entries of a tree without caching them.
+	 */
+	public static List<Entry> parse(ObjectReader reader, AnyObjectId treeId) throws IOException {
+		List<Entry> entries = new ArrayList<Entry>();
+		CanonicalTreeParser parser = new CanonicalTreeParser();
+		parser.reset(reader, treeId);
+		for (; !parser.eof(); parser.next()) {
+			entries.add(new Entry(parser.getEntryPathString(), parser.getEntryFileMode(), parser.getEntryObjectId()));
+		}
+		return Collections.unmodifiableList(entries);
+	}
+
+	public static class Entry {
+		private final String name;
+		private final FileMode mode;
+		private final ObjectId objectId;
+
+		Entry(String name, FileMode mode, ObjectId objectId) {
+			this.name = name;
+			this.mode = mode;
+			this.objectId = objectId;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public FileMode getMode() {
+			return mode;
+		}
+
+		public ObjectId getObjectId() {
+			return objectId;
+		}
+
+		public boolean isTree() {
+			return (mode.getBits() & FileMode.TYPE_MASK) == FileMode.TYPE_TREE;
+		}
+
+		/*
+		 * entry 와 이름, object id 가 차지하는 heap 의 대략적인 크기
+		 */
+		int weight() {
+			return 120 + 2 * name.length();
+		}
+	}
+}
@@ -0,0 +1,255 @@
+package org.junoyoon.gitonline.cmd;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Apply path edits to a tree by rewriting only the trees on the edited paths.
+ * <p/>
+ * Every other subtree is reused by its id, so the cost depends on the number and depth of the
+ * edited paths, not on the size of the repository.
+ */
+class TreeRewriter {
+
+	private final ObjectReader reader;
+	private final AnyObjectId baseTreeId;
+	private final Node root = new Node();
+
+	/**
+	 * @param baseTreeId tree to be edited, or {@code null} to start from an empty tree
+	 */
+	TreeRewriter(ObjectReader reader, AnyObjectId baseTreeId) {
+		this.reader = reader;
+		this.baseTreeId = baseTreeId;
+	}
+
+	/**
+	 * Set the entry at {@code path}. If {@code mode} is {@code null}, an executable file stays
+	 * executable and anything else becomes a regular file.
+	 */
+	void put(String path, FileMode mode, ObjectId objectId) {
+		Node node = root;
+		for (String name : split(path)) {
+			if (node.objectId != null) {
+				throw new IllegalArgumentException("Parent of " + path + " is also changed to a file");
+			}
+			node = node.child(name);
+		}
+		if (!node.children.isEmpty()) {
+			throw new IllegalArgumentException("Path is changed to a file and a directory : " + path);
+		}
+		node.mode = mode;
+		node.objectId = objectId;
+	}
+
+	/**
+	 * Delete the file or the whole directory at {@code path}. Missing paths are ignored.
+	 */
+	void delete(String path) {
+		Node node = root;
+		for (String name : split(path)) {
+			node = node.child(name);
+		}
+		node.delete = true;
+	}
+
+	/**
+	 * @return the entry at {@code path} in the base tree, or {@code null} if there is no such path
+	 */
+	Entry find(String path) throws IOException {
+		split(path);
+		if (baseTreeId == null) {
+			return null;
+		}
+		TreeWalk treeWalk = TreeWalk.forPath(reader, path, baseTreeId);
+		if (treeWalk == null) {
+			return null;
+		}
+		try {
+			return new Entry(treeWalk.getNameString(), treeWalk.getFileMode(0), treeWalk.getObjectId(0));
+		} finally {
+			treeWalk.release();
+		}
+	}
+
+	/**
+	 * Write the edited trees and return the id of the new root tree.
+	 */
+	ObjectId writeTo(ObjectInserter inserter) throws IOException {
+		ObjectId treeId = rewrite(inserter, baseTreeId, root, "");
+		if (treeId == null) {
+			return inserter.insert(new TreeFormatter());
+		}
+		return treeId;
+	}
+
+	/*
+	 * treeId 에 node 의 변경을 적용한 tree 를 저장한다. 결과가 빈 tree 이면 null 을 반환한다.
+	 * 같은 changeset 에서 지우지 않은 디렉토리를 파일로, 파일을 디렉토리로 바꾸지 않는다.
+	 */
+	private ObjectId rewrite(ObjectInserter inserter, AnyObjectId treeId, Node node, String basePath) throws IOException {
+		Map<String, Entry> entries = read(treeId);
+		for (Map.Entry<String, Node> each : node.children.entrySet()) {
+			String name = each.getKey();
+			String path = basePath + name;
+			Node child = each.getValue();
+			Entry existing = child.delete ? null : entries.get(name);
+			if (child.delete) {
+				entries.remove(name);
+			}
+			if (child.objectId != null) {
+				if (existing != null && existing.isTree()) {
+					throw new IllegalArgumentException("Path is a directory : " + path);
+				}
+				FileMode mode = child.mode;
+				if (mode == null) {
+					mode = existing != null && existing.mode == FileMode.EXECUTABLE_FILE
+							? FileMode.EXECUTABLE_FILE : FileMode.REGULAR_FILE;
+				}
+				entries.put(name, new Entry(name, mode, child.objectId));
+			} else if (!child.children.isEmpty()) {
+				if (existing != null && !existing.isTree()) {
+					// 파일 아래의 없는 path 를 지우는 것은 무시한다
+					if (child.hasPut()) {
+						throw new IllegalArgumentException("Path is a file : " + path);
+					}
+					continue;
+				}
+				ObjectId subtreeId = rewrite(inserter, existing != null ? existing.objectId : null, child, path + "/");
+				if (subtreeId == null) {
+					entries.remove(name);
+				} else {
+					entries.put(name, new Entry(name, FileMode.TREE, subtreeId));
+				}
+			}
+		}
+		if (entries.isEmpty()) {
+			return null;
+		}
+
+		List<Entry> sorted = new ArrayList<Entry>(entries.values());
+		Collections.sort(sorted, GIT_ORDER);
+		TreeFormatter formatter = new TreeFormatter();
+		for (Entry each : sorted) {
+			formatter.append(each.rawName, each.mode, each.objectId);
+		}
+		return formatter.insertTo(inserter);
+	}
+
+	/*
+	 * git 이 받아들이지 않는 path 는 tree 를 만들기 전에 거절한다. fsck 가 badTree, hasDotdot 등으로 보는 것들이다.
+	 */
+	private static String[] split(String path) {
+		if (path == null || path.isEmpty() || path.startsWith("/") || path.endsWith("/") || path.contains("//")
+				|| path.indexOf('\0') >= 0) {
+			throw new IllegalArgumentException("Invalid path : " + path);
+		}
+		String[] names = path.split("/");
+		for (String each : names) {
+			if (each.equals(".") || each.equals("..") || each.equalsIgnoreCase(Constants.DOT_GIT)) {
+				throw new IllegalArgumentException("Invalid path : " + path);
+			}
+		}
+		return names;
+	}
+
+	private Map<String, Entry> read(AnyObjectId treeId) throws IOException {
+		Map<String, Entry> entries = new HashMap<String, Entry>();
+		if (treeId == null) {
+			return entries;
+		}
+		CanonicalTreeParser parser = new CanonicalTreeParser();
+		parser.reset(reader, treeId);
+		for (; !parser.eof(); parser.next()) {
+			String name = parser.getEntryPathString();
+			entries.put(name, new Entry(name, parser.getEntryFileMode(), parser.getEntryObjectId()));
+		}
+		return entries;
+	}
+
+	/*
+	 * git 은 tree entry 를 이름의 byte 순서로 정렬하되 subtree 는 이름 뒤에 '/' 가 붙은 것처럼 비교한다.
+	 */
+	private static final Comparator<Entry> GIT_ORDER = new Comparator<Entry>() {
+		@Override
+		public int compare(Entry a, Entry b) {
+			int length = Math.min(a.rawName.length, b.rawName.length);
+			for (int i = 0; i < length; i++) {
+				int cmp = (a.rawName[i] & 0xff) - (b.rawName[i] & 0xff);
+				if (cmp != 0) {
+					return cmp;
+				}
+			}
+			return lastChar(a, length) - lastChar(b, length);
+		}
+
+		private int lastChar(Entry entry, int index) {
+			if (index < entry.rawName.length) {
+				return entry.rawName[index] & 0xff;
+			}
+			return entry.isTree() ? '/' : 0;
+		}
+	};
+
+	static class Entry {
+		final String name;
+		final byte[] rawName;
+		final FileMode mode;
+		final ObjectId objectId;
+
+		Entry(String name, FileMode mode, ObjectId objectId) {
+			this.name = name;
+			this.rawName = Constants.encode(name);
+			this.mode = mode;
+			this.objectId = objectId;
+		}
+
+		boolean isTree() {
+			return (mode.getBits() & FileMode.TYPE_MASK) == FileMode.TYPE_TREE;
+		}
+	}
+
+	private static class Node {
+		final Map<String, Node> children = new TreeMap<String, Node>();
+		boolean delete;
+		FileMode mode;
+		ObjectId objectId;
+
+		boolean hasPut() {
+			if (objectId != null) {
+				return true;
+			}
+			for (Node each : children.values()) {
+				if (each.hasPut()) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		Node child(String name) {
+			Node child = children.get(name);
+			if (child == null) {
+				child = new Node();
+				children.put(name, child);
+			}
+			return child;
+		}
+	}
+}
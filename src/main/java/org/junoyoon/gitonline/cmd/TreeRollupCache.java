@@ -0,0 +1,113 @@
+package org.junoyoon.gitonline.cmd;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Total size and number of files under trees, keyed by the tree id.
+ * <p/>
+ * A rollup is the sum of the rollups of the subtrees and the sizes of the blobs, and every
+ * subtree is looked up here first. After a commit only the trees on the changed paths have new
+ * ids, so only they are summed again.
+ */
+public class TreeRollupCache {
+
+	public static final long DEFAULT_MAX_TREES = 100000;
+
+	private final Cache<ObjectId, Rollup> cache;
+	private final TreeListingCache treeListingCache;
+
+	public TreeRollupCache() {
+		this(DEFAULT_MAX_TREES, null);
+	}
+
+	/**
+	 * @param maxTrees         number of trees whose rollups are kept
+	 * @param treeListingCache cache to read the trees through, or {@code null} to parse them
+	 */
+	public TreeRollupCache(long maxTrees, TreeListingCache treeListingCache) {
+		this.cache = CacheBuilder.newBuilder().maximumSize(maxTrees).recordStats().build();
+		this.treeListingCache = treeListingCache;
+	}
+
+	public Rollup get(final ObjectReader reader, AnyObjectId treeId) throws IOException {
+		final ObjectId key = treeId.copy();
+		try {
+			return cache.get(key, new Callable<Rollup>() {
+				@Override
+				public Rollup call() throws IOException {
+					return sum(reader, key);
+				}
+			});
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	public long getHitCount() {
+		return cache.stats().hitCount();
+	}
+
+	public long getMissCount() {
+		return cache.stats().missCount();
+	}
+
+	public long size() {
+		return cache.size();
+	}
+
+	private Rollup sum(ObjectReader reader, ObjectId treeId) throws IOException {
+		List<TreeListingCache.Entry> entries = treeListingCache == null
+				? TreeListingCache.parse(reader, treeId) : treeListingCache.get(reader, treeId);
+		long size = 0;
+		long fileCount = 0;
+		for (TreeListingCache.Entry each : entries) {
+			if (each.isTree()) {
+				Rollup rollup = get(reader, each.getObjectId());
+				size += rollup.getSize();
+				fileCount += rollup.getFileCount();
+			} else if (each.getMode() != FileMode.GITLINK) {
+				size += reader.getObjectSize(each.getObjectId(), Constants.OBJ_BLOB);
+				fileCount++;
+			}
+		}
+		return new Rollup(size, fileCount);
+	}
+
+	public static class Rollup {
+		private final long size;
+		private final long fileCount;
+
+		Rollup(long size, long fileCount) {
+			this.size = size;
+			this.fileCount = fileCount;
+		}
+
+		/**
+		 * @return total size of the files under the tree
+		 */
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * @return number of files under the tree, excluding submodules
+		 */
+		public long getFileCount() {
+			return fileCount;
+		}
+	}
+}
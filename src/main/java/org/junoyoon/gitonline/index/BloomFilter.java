@@ -0,0 +1,62 @@
+package org.junoyoon.gitonline.index;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.util.Collection;
+
+/**
+ * Bloom filter of paths, laid out like the changed-path filters of git's commit-graph:
+ * 10 bits per path, 7 probes and double hashing of two murmur3 hashes.
+ */
+class BloomFilter {
+
+	static final int BITS_PER_ENTRY = 10;
+	static final int NUM_HASHES = 7;
+
+	private static final HashFunction HASH1 = Hashing.murmur3_32(0x293ae76f);
+	private static final HashFunction HASH2 = Hashing.murmur3_32(0x7e646e2c);
+
+	private final byte[] bits;
+
+	BloomFilter(byte[] bits) {
+		this.bits = bits;
+	}
+
+	static BloomFilter create(Collection<String> paths) {
+		int length = Math.max(8, (paths.size() * BITS_PER_ENTRY + 7) / 8);
+		BloomFilter filter = new BloomFilter(new byte[length]);
+		for (String each : paths) {
+			filter.put(each);
+		}
+		return filter;
+	}
+
+	private void put(String path) {
+		int h1 = HASH1.hashString(path, Charsets.UTF_8).asInt();
+		int h2 = HASH2.hashString(path, Charsets.UTF_8).asInt();
+		long m = bits.length * 8L;
+		for (int i = 0; i < NUM_HASHES; i++) {
+			int bit = (int) (((h1 + (long) i * h2) & 0xffffffffL) % m);
+			bits[bit >>> 3] |= 1 << (bit & 7);
+		}
+	}
+
+	boolean mightContain(String path) {
+		int h1 = HASH1.hashString(path, Charsets.UTF_8).asInt();
+		int h2 = HASH2.hashString(path, Charsets.UTF_8).asInt();
+		long m = bits.length * 8L;
+		for (int i = 0; i < NUM_HASHES; i++) {
+			int bit = (int) (((h1 + (long) i * h2) & 0xffffffffL) % m);
+			if ((bits[bit >>> 3] & (1 << (bit & 7))) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	byte[] toByteArray() {
+		return bits;
+	}
+}
@@ -0,0 +1,308 @@
+package org.junoyoon.gitonline.index;
+
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.CRC32;
+
+/**
+ * Bloom filters of the paths each commit changed against its first parent, like the changed-path
+ * filters of git's commit-graph.
+ * <p/>
+ * A path-limited history walk asks {@link #mightHaveChanged(AnyObjectId, String)} before diffing
+ * the trees of a commit, and skips the diff for most commits which did not touch the path. The
+ * filters are appended to {@code $GIT_DIR/online/changed-paths}; {@link #build()} generates them for
+ * the existing history, which the {@code MaintenanceScheduler} runs, and the online commit path adds
+ * one per new commit.
+ * <p/>
+ * Every record ends with a checksum. A torn record left by a crash is cut off before the next one
+ * is appended.
+ */
+public class ChangedPathIndex {
+
+	/**
+	 * Commits which changed more paths than this get no filter and are always diffed.
+	 */
+	static final int MAX_CHANGED_PATHS = 512;
+
+	private static final int TOO_MANY_PATHS = -1;
+
+	/*
+	 * commit id, path 수, filter 길이, checksum
+	 */
+	private static final int RECORD_OVERHEAD = Constants.OBJECT_ID_LENGTH + 4 + 4 + 4;
+
+	private static final ConcurrentMap<File, ChangedPathIndex> indexes = new ConcurrentHashMap<File, ChangedPathIndex>();
+
+	private final Repository repository;
+	private final File file;
+	private final Map<ObjectId, BloomFilter> filters = new ConcurrentHashMap<ObjectId, BloomFilter>();
+	private final Set<ObjectId> unfiltered = Collections.newSetFromMap(new ConcurrentHashMap<ObjectId, Boolean>());
+	private volatile long loadedLength = 0;
+
+	ChangedPathIndex(Repository repository) {
+		this.repository = repository;
+		this.file = new File(new File(repository.getDirectory(), "online"), "changed-paths");
+	}
+
+	/**
+	 * @return the index shared by every user of the repository directory of {@code repository}
+	 */
+	public static ChangedPathIndex get(Repository repository) {
+		File key = repository.getDirectory().getAbsoluteFile();
+		ChangedPathIndex index = indexes.get(key);
+		if (index == null) {
+			ChangedPathIndex created = new ChangedPathIndex(repository);
+			index = indexes.putIfAbsent(key, created);
+			if (index == null) {
+				index = created;
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Forget the filters of {@code repository}, e.g. when it is closed or deleted.
+	 */
+	public static void remove(Repository repository) {
+		indexes.remove(repository.getDirectory().getAbsoluteFile());
+	}
+
+	/**
+	 * @return {@code false} only if {@code commitId} certainly did not change {@code path} or anything
+	 * under it against its first parent
+	 */
+	public boolean mightHaveChanged(AnyObjectId commitId, String path) throws IOException {
+		BloomFilter filter = filters.get(commitId);
+		if (filter == null && !unfiltered.contains(commitId) && file.length() > loadedLength) {
+			load(false);
+			filter = filters.get(commitId);
+		}
+		return filter == null || filter.mightContain(path);
+	}
+
+	public boolean contains(AnyObjectId commitId) {
+		return filters.containsKey(commitId) || unfiltered.contains(commitId);
+	}
+
+	/**
+	 * Add the filter of a new commit.
+	 */
+	public synchronized void add(AnyObjectId commitId) throws IOException {
+		load(true);
+		if (contains(commitId)) {
+			return;
+		}
+		ObjectReader reader = repository.newObjectReader();
+		RevWalk revWalk = new RevWalk(reader);
+		DataOutputStream out = open();
+		try {
+			write(out, reader, revWalk.parseCommit(commitId), revWalk);
+		} finally {
+			out.close();
+			revWalk.dispose();
+			reader.release();
+		}
+	}
+
+	/**
+	 * Generate the filters of every commit reachable from the refs which has none yet.
+	 *
+	 * @return number of commits added
+	 */
+	public synchronized int build() throws IOException {
+		load(true);
+		ObjectReader reader = repository.newObjectReader();
+		RevWalk revWalk = new RevWalk(reader);
+		DataOutputStream out = open();
+		int count = 0;
+		try {
+			for (Ref ref : repository.getAllRefs().values()) {
+				ObjectId objectId = ref.getObjectId();
+				if (objectId == null) {
+					continue;
+				}
+				try {
+					revWalk.markStart(revWalk.parseCommit(objectId));
+				} catch (IncorrectObjectTypeException e) {
+					// not a commit
+				}
+			}
+			for (RevCommit each : revWalk) {
+				if (!contains(each)) {
+					write(out, reader, each, revWalk);
+					count++;
+				}
+			}
+		} finally {
+			out.close();
+			revWalk.dispose();
+			reader.release();
+		}
+		return count;
+	}
+
+	private DataOutputStream open() throws IOException {
+		//noinspection ResultOfMethodCallIgnored
+		file.getParentFile().mkdirs();
+		return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+	}
+
+	/*
+	 * record : commit id(20) | path 수 또는 TOO_MANY_PATHS(4) | filter 길이(4) | filter | 앞의 내용의 CRC32(4)
+	 */
+	private void write(DataOutputStream out, ObjectReader reader, RevCommit commit, RevWalk revWalk) throws IOException {
+		Set<String> paths = changedPaths(reader, commit, revWalk);
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		DataOutputStream record = new DataOutputStream(buffer);
+		byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+		commit.copyRawTo(raw, 0);
+		record.write(raw);
+		BloomFilter filter = null;
+		if (paths == null) {
+			record.writeInt(TOO_MANY_PATHS);
+			record.writeInt(0);
+		} else {
+			filter = BloomFilter.create(paths);
+			byte[] bits = filter.toByteArray();
+			record.writeInt(paths.size());
+			record.writeInt(bits.length);
+			record.write(bits);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(buffer.toByteArray());
+		record.writeInt((int) crc.getValue());
+		out.write(buffer.toByteArray());
+		if (filter == null) {
+			unfiltered.add(commit.copy());
+		} else {
+			filters.put(commit.copy(), filter);
+		}
+	}
+
+	/*
+	 * 첫번째 부모와 비교해서 바뀐 파일과 그 상위 디렉토리들. 너무 많으면 null
+	 */
+	private Set<String> changedPaths(ObjectReader reader, RevCommit commit, RevWalk revWalk) throws IOException {
+		TreeWalk treeWalk = new TreeWalk(reader);
+		try {
+			if (commit.getParentCount() == 0) {
+				treeWalk.addTree(new EmptyTreeIterator());
+			} else {
+				treeWalk.addTree(revWalk.parseCommit(commit.getParent(0)).getTree());
+			}
+			treeWalk.addTree(commit.getTree());
+			treeWalk.setRecursive(true);
+			treeWalk.setFilter(TreeFilter.ANY_DIFF);
+			Set<String> paths = new HashSet<String>();
+			while (treeWalk.next()) {
+				String path = treeWalk.getPathString();
+				while (paths.add(path)) {
+					int slash = path.lastIndexOf('/');
+					if (slash < 0) {
+						break;
+					}
+					path = path.substring(0, slash);
+				}
+				if (paths.size() > MAX_CHANGED_PATHS) {
+					return null;
+				}
+			}
+			return paths;
+		} finally {
+			treeWalk.release();
+		}
+	}
+
+	/*
+	 * 마지막으로 읽은 곳부터 읽는다. 길이가 모자라거나 checksum 이 맞지 않는 record 에서 멈추고,
+	 * truncate 이면 그 record 부터 잘라내서 다음 record 를 온전한 record 뒤에 붙인다.
+	 */
+	private synchronized void load(boolean truncate) throws IOException {
+		if (file.length() < loadedLength) {
+			// the file was recreated
+			loadedLength = 0;
+		}
+		if (!file.exists() || file.length() <= loadedLength) {
+			return;
+		}
+		long position = loadedLength;
+		FileInputStream fileIn = new FileInputStream(file);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(fileIn));
+		try {
+			long skip = position;
+			while (skip > 0) {
+				skip -= in.skip(skip);
+			}
+			byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+			long remaining = file.length() - position;
+			while (remaining >= RECORD_OVERHEAD) {
+				in.readFully(raw);
+				int count = in.readInt();
+				int length = in.readInt();
+				if (length < 0 || length > remaining - RECORD_OVERHEAD) {
+					break;
+				}
+				byte[] bits = new byte[length];
+				in.readFully(bits);
+				CRC32 crc = new CRC32();
+				crc.update(raw);
+				crc.update(toBytes(count));
+				crc.update(toBytes(length));
+				crc.update(bits);
+				if (in.readInt() != (int) crc.getValue()) {
+					break;
+				}
+				ObjectId commitId = ObjectId.fromRaw(raw);
+				if (count == TOO_MANY_PATHS) {
+					unfiltered.add(commitId);
+				} else {
+					filters.put(commitId, new BloomFilter(bits));
+				}
+				position += RECORD_OVERHEAD + length;
+				remaining -= RECORD_OVERHEAD + length;
+			}
+		} finally {
+			in.close();
+		}
+		loadedLength = position;
+		if (truncate && file.length() > position) {
+			RandomAccessFile out = new RandomAccessFile(file, "rw");
+			try {
+				out.setLength(position);
+			} finally {
+				out.close();
+			}
+		}
+	}
+
+	private static byte[] toBytes(int value) {
+		return new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+	}
+}
@@ -0,0 +1,98 @@
+package org.junoyoon.gitonline.index;
+
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import java.io.IOException;
+
+/**
+ * Include the commits which changed {@code path} against every parent.
+ * <p/>
+ * A commit with one parent is skipped without reading any tree when its changed-path filter
+ * says the path was not touched. Unlike {@code LogCommand.addPath}, parents are not rewritten,
+ * so the returned commits keep their real parents.
+ */
+public class ChangedPathRevFilter extends RevFilter {
+
+	private final ChangedPathIndex index;
+	private final String path;
+	private final TreeFilter treeFilter;
+
+	private long skipped;
+	private long diffed;
+
+	public ChangedPathRevFilter(ChangedPathIndex index, String path) {
+		this.index = index;
+		this.path = path;
+		this.treeFilter = AndTreeFilter.create(PathFilter.create(path), TreeFilter.ANY_DIFF);
+	}
+
+	@Override
+	public boolean include(RevWalk walker, RevCommit commit) throws MissingObjectException, IncorrectObjectTypeException, IOException {
+		if (commit.getParentCount() == 1 && index != null && !index.mightHaveChanged(commit, path)) {
+			skipped++;
+			return false;
+		}
+		if (commit.getParentCount() == 0) {
+			return changed(walker, null, commit.getTree());
+		}
+		for (RevCommit parent : commit.getParents()) {
+			walker.parseHeaders(parent);
+			if (!changed(walker, parent.getTree(), commit.getTree())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean changed(RevWalk walker, RevTree parentTree, RevTree tree) throws IOException {
+		diffed++;
+		TreeWalk treeWalk = new TreeWalk(walker.getObjectReader());
+		try {
+			if (parentTree == null) {
+				treeWalk.addTree(new EmptyTreeIterator());
+			} else {
+				treeWalk.addTree(parentTree);
+			}
+			treeWalk.addTree(tree);
+			treeWalk.setRecursive(true);
+			treeWalk.setFilter(treeFilter);
+			return treeWalk.next();
+		} finally {
+			treeWalk.release();
+		}
+	}
+
+	/**
+	 * @return number of commits skipped by their changed-path filter
+	 */
+	public long getSkipped() {
+		return skipped;
+	}
+
+	/**
+	 * @return number of tree diffs which had to be done
+	 */
+	public long getDiffed() {
+		return diffed;
+	}
+
+	@Override
+	public RevFilter clone() {
+		return new ChangedPathRevFilter(index, path);
+	}
+
+	@Override
+	public String toString() {
+		return "CHANGED_PATH(" + path + ")";
+	}
+}
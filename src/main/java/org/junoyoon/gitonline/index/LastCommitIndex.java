@@ -0,0 +1,305 @@
+package org.junoyoon.gitonline.index;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import org.eclipse.jgit.internal.storage.file.LockFile;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.util.FileUtils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * On-disk index of the last commit which changed each child of a directory, as seen from a tip commit.
+ * <p/>
+ * An entry is stored at {@code $GIT_DIR/online/last-commit/<tip>/<sha1 of the directory path>}.
+ * Online commits carry the entries of their parent over, computing again only the directories whose
+ * tree changed, and the parent is dropped from the index.
+ * A tip which was not committed online, e.g. one pushed from outside, is derived lazily from the
+ * closest indexed ancestor as long as the history between them is linear. Anything else has to be
+ * computed by walking the history and {@link #put(AnyObjectId, String, Map)} into the index.
+ * <p/>
+ * The entries of tips which are no longer pointed to by a ref are dropped by {@link #prune()}, which
+ * the {@code MaintenanceScheduler} runs.
+ */
+public class LastCommitIndex {
+
+	private static final int MAX_DERIVE_DEPTH = 64;
+
+	private final Repository repository;
+	private final File root;
+
+	public LastCommitIndex(Repository repository) {
+		this.repository = repository;
+		this.root = new File(new File(repository.getDirectory(), "online"), "last-commit");
+	}
+
+	/**
+	 * @return the last commit of every child of {@code dir} at {@code tip}, or {@code null} if the
+	 * index can not tell without walking the history
+	 */
+	public Map<String, ObjectId> get(AnyObjectId tip, String dir) throws IOException {
+		Map<String, ObjectId> lastCommits = read(tip, dir);
+		if (lastCommits != null) {
+			return lastCommits;
+		}
+		return derive(tip, dir);
+	}
+
+	public void put(AnyObjectId tip, String dir, Map<String, ObjectId> lastCommits) throws IOException {
+		File file = file(tip, dir);
+		//noinspection ResultOfMethodCallIgnored
+		file.getParentFile().mkdirs();
+		StringBuilder content = new StringBuilder(dir).append('\n');
+		for (Map.Entry<String, ObjectId> each : lastCommits.entrySet()) {
+			content.append(each.getValue().name()).append(' ').append(each.getKey()).append('\n');
+		}
+		LockFile lock = new LockFile(file, repository.getFS());
+		if (!lock.lock()) {
+			// somebody else is writing the same entry
+			return;
+		}
+		try {
+			lock.write(content.toString().getBytes(Charsets.UTF_8));
+			lock.commit();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Carry the directories indexed at {@code parentId} over to {@code commitId}, which has
+	 * {@code parentId} as its only parent, and drop {@code parentId} from the index.
+	 * <p/>
+	 * Only the directories whose tree changed are computed again. The entries of the others are
+	 * moved to {@code commitId} as they are.
+	 */
+	public void onCommit(AnyObjectId parentId, AnyObjectId commitId) throws IOException {
+		File parentDir = new File(root, parentId.name());
+		File[] files = parentDir.listFiles();
+		if (files == null) {
+			return;
+		}
+		File commitDir = new File(root, commitId.name());
+		//noinspection ResultOfMethodCallIgnored
+		commitDir.mkdirs();
+		ObjectReader reader = repository.newObjectReader();
+		RevWalk revWalk = new RevWalk(reader);
+		try {
+			RevTree parentTree = revWalk.parseCommit(parentId).getTree();
+			RevTree commitTree = revWalk.parseCommit(commitId).getTree();
+			for (File each : files) {
+				if (each.getName().endsWith(".lock")) {
+					continue;
+				}
+				String dir = readDir(each);
+				if (dir == null) {
+					continue;
+				}
+				ObjectId treeId = treeId(reader, commitTree, dir);
+				if (treeId == null) {
+					continue;
+				}
+				if (treeId.equals(treeId(reader, parentTree, dir))) {
+					/* 바뀌지 않은 디렉토리의 last commit 들은 부모와 같다 */
+					//noinspection ResultOfMethodCallIgnored
+					each.renameTo(new File(commitDir, each.getName()));
+					continue;
+				}
+				Map<String, ObjectId> lastCommits = read(parentId, dir);
+				if (lastCommits == null) {
+					continue;
+				}
+				lastCommits = step(reader, parentTree, commitTree, dir, lastCommits, commitId.copy());
+				if (lastCommits != null) {
+					put(commitId, dir, lastCommits);
+				}
+			}
+		} finally {
+			revWalk.dispose();
+			reader.release();
+		}
+		FileUtils.delete(parentDir, FileUtils.RECURSIVE | FileUtils.IGNORE_ERRORS);
+	}
+
+	/**
+	 * Drop the entries of every tip which no ref points to any more, e.g. old revisions listed by
+	 * their id or branches which moved outside of the online commands.
+	 *
+	 * @return number of tips dropped
+	 */
+	public int prune() throws IOException {
+		File[] tips = root.listFiles();
+		if (tips == null) {
+			return 0;
+		}
+		Set<String> refTips = new HashSet<String>();
+		for (Ref each : repository.getAllRefs().values()) {
+			Ref peeled = repository.peel(each);
+			ObjectId objectId = peeled.getPeeledObjectId() != null ? peeled.getPeeledObjectId() : peeled.getObjectId();
+			if (objectId != null) {
+				refTips.add(objectId.name());
+			}
+		}
+		int pruned = 0;
+		for (File each : tips) {
+			if (each.isDirectory() && !refTips.contains(each.getName())) {
+				FileUtils.delete(each, FileUtils.RECURSIVE | FileUtils.IGNORE_ERRORS);
+				pruned++;
+			}
+		}
+		return pruned;
+	}
+
+	/*
+	 * 부모가 하나뿐인 commit 들을 따라가다 index 된 조상을 만나면 거기서부터 tip 까지 한 commit 씩 계산한다.
+	 */
+	private Map<String, ObjectId> derive(AnyObjectId tip, String dir) throws IOException {
+		ObjectReader reader = repository.newObjectReader();
+		RevWalk revWalk = new RevWalk(reader);
+		try {
+			List<RevCommit> chain = new ArrayList<RevCommit>();
+			RevCommit commit = revWalk.parseCommit(tip);
+			Map<String, ObjectId> lastCommits = null;
+			while (lastCommits == null) {
+				if (commit.getParentCount() != 1 || chain.size() >= MAX_DERIVE_DEPTH) {
+					return null;
+				}
+				chain.add(commit);
+				commit = revWalk.parseCommit(commit.getParent(0));
+				lastCommits = read(commit, dir);
+			}
+			for (int i = chain.size() - 1; i >= 0 && lastCommits != null; i--) {
+				RevCommit each = chain.get(i);
+				RevTree parentTree = revWalk.parseCommit(each.getParent(0)).getTree();
+				lastCommits = step(reader, parentTree, each.getTree(), dir, lastCommits, each.copy());
+			}
+			if (lastCommits != null) {
+				put(tip, dir, lastCommits);
+			}
+			return lastCommits;
+		} finally {
+			revWalk.dispose();
+			reader.release();
+		}
+	}
+
+	/*
+	 * 부모의 dir 과 id 가 같은 child 는 부모의 last commit 을 물려받고, 다른 child 는 commitId 가 last commit 이다.
+	 */
+	private Map<String, ObjectId> step(ObjectReader reader, RevTree parentTree, RevTree commitTree, String dir,
+									   Map<String, ObjectId> parentLastCommits, ObjectId commitId) throws IOException {
+		Map<String, ObjectId> children = children(reader, commitTree, dir);
+		if (children == null) {
+			return null;
+		}
+		Map<String, ObjectId> parentChildren = children(reader, parentTree, dir);
+		Map<String, ObjectId> lastCommits = new LinkedHashMap<String, ObjectId>();
+		for (Map.Entry<String, ObjectId> each : children.entrySet()) {
+			ObjectId parentChild = parentChildren == null ? null : parentChildren.get(each.getKey());
+			if (!each.getValue().equals(parentChild)) {
+				lastCommits.put(each.getKey(), commitId);
+				continue;
+			}
+			ObjectId lastCommit = parentLastCommits.get(each.getKey());
+			if (lastCommit == null) {
+				return null;
+			}
+			lastCommits.put(each.getKey(), lastCommit);
+		}
+		return lastCommits;
+	}
+
+	private ObjectId treeId(ObjectReader reader, RevTree tree, String dir) throws IOException {
+		if (dir.isEmpty()) {
+			return tree.copy();
+		}
+		TreeWalk treeWalk = TreeWalk.forPath(reader, dir, tree);
+		if (treeWalk == null) {
+			return null;
+		}
+		try {
+			return treeWalk.isSubtree() ? treeWalk.getObjectId(0) : null;
+		} finally {
+			treeWalk.release();
+		}
+	}
+
+	private Map<String, ObjectId> children(ObjectReader reader, RevTree tree, String dir) throws IOException {
+		TreeWalk treeWalk;
+		if (dir.isEmpty()) {
+			treeWalk = new TreeWalk(reader);
+			treeWalk.addTree(tree);
+		} else {
+			treeWalk = TreeWalk.forPath(reader, dir, tree);
+			if (treeWalk == null || !treeWalk.isSubtree()) {
+				return null;
+			}
+			treeWalk.enterSubtree();
+		}
+		try {
+			Map<String, ObjectId> children = new LinkedHashMap<String, ObjectId>();
+			while (treeWalk.next()) {
+				children.put(treeWalk.getNameString(), treeWalk.getObjectId(0));
+			}
+			return children;
+		} finally {
+			treeWalk.release();
+		}
+	}
+
+	private Map<String, ObjectId> read(AnyObjectId tip, String dir) throws IOException {
+		BufferedReader in;
+		try {
+			in = new BufferedReader(new InputStreamReader(new FileInputStream(file(tip, dir)), Charsets.UTF_8));
+		} catch (FileNotFoundException e) {
+			return null;
+		}
+		try {
+			if (!dir.equals(in.readLine())) {
+				// sha1 collision of the directory path
+				return null;
+			}
+			Map<String, ObjectId> lastCommits = new LinkedHashMap<String, ObjectId>();
+			String line;
+			while ((line = in.readLine()) != null) {
+				lastCommits.put(line.substring(Constants.OBJECT_ID_STRING_LENGTH + 1), ObjectId.fromString(line.substring(0, Constants.OBJECT_ID_STRING_LENGTH)));
+			}
+			return lastCommits;
+		} finally {
+			in.close();
+		}
+	}
+
+	private String readDir(File file) throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charsets.UTF_8));
+		try {
+			return in.readLine();
+		} finally {
+			in.close();
+		}
+	}
+
+	private File file(AnyObjectId tip, String dir) {
+		return new File(new File(root, tip.name()), Hashing.sha1().hashString(dir, Charsets.UTF_8).toString());
+	}
+}
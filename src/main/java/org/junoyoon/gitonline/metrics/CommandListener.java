@@ -0,0 +1,37 @@
+package org.junoyoon.gitonline.metrics;
+
+/**
+ * Receives timings and counts from the online commands.
+ * <p/>
+ * Methods are called on the threads running the commands, often several at a time, so an
+ * implementation must be thread safe and should return quickly.
+ */
+public interface CommandListener {
+
+	void onPhase(Phase phase, long nanos);
+
+	/**
+	 * @param count number of trees and blobs read from the object database
+	 */
+	void onObjectsRead(long count);
+
+	/**
+	 * @param count number of blobs, trees and commits inserted into the object database
+	 */
+	void onObjectsInserted(long count);
+
+	/**
+	 * @param count number of commits visited while looking for the last commits of entries
+	 */
+	void onCommitsWalked(long count);
+
+	/**
+	 * HEAD was moved by another writer, or its lock was taken, so the commit is tried again.
+	 */
+	void onRefLockRetry();
+
+	/**
+	 * A phase failed in a way that the command did not report to its caller.
+	 */
+	void onFailure(Phase phase, Exception cause);
+}
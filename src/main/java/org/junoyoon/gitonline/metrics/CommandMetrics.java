@@ -0,0 +1,123 @@
+package org.junoyoon.gitonline.metrics;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link CommandListener} which keeps a latency {@link Histogram} per {@link Phase} and the counts
+ * in memory. The commands report to {@link #getDefault()} unless they are given another listener.
+ */
+public class CommandMetrics implements CommandListener {
+
+	private static final CommandMetrics DEFAULT = new CommandMetrics();
+
+	private final Map<Phase, Histogram> phases = new EnumMap<Phase, Histogram>(Phase.class);
+	private final Map<Phase, AtomicLong> failures = new EnumMap<Phase, AtomicLong>(Phase.class);
+	private final AtomicLong objectsRead = new AtomicLong();
+	private final AtomicLong objectsInserted = new AtomicLong();
+	private final AtomicLong commitsWalked = new AtomicLong();
+	private final AtomicLong refLockRetries = new AtomicLong();
+
+	public CommandMetrics() {
+		for (Phase each : Phase.values()) {
+			phases.put(each, new Histogram());
+			failures.put(each, new AtomicLong());
+		}
+	}
+
+	public static CommandMetrics getDefault() {
+		return DEFAULT;
+	}
+
+	@Override
+	public void onPhase(Phase phase, long nanos) {
+		phases.get(phase).record(nanos);
+	}
+
+	@Override
+	public void onObjectsRead(long count) {
+		objectsRead.addAndGet(count);
+	}
+
+	@Override
+	public void onObjectsInserted(long count) {
+		objectsInserted.addAndGet(count);
+	}
+
+	@Override
+	public void onCommitsWalked(long count) {
+		commitsWalked.addAndGet(count);
+	}
+
+	@Override
+	public void onRefLockRetry() {
+		refLockRetries.incrementAndGet();
+	}
+
+	@Override
+	public void onFailure(Phase phase, Exception cause) {
+		failures.get(phase).incrementAndGet();
+	}
+
+	/**
+	 * @return nanoseconds spent in each run of {@code phase}
+	 */
+	public Histogram getHistogram(Phase phase) {
+		return phases.get(phase);
+	}
+
+	public long getFailureCount(Phase phase) {
+		return failures.get(phase).get();
+	}
+
+	public long getObjectsRead() {
+		return objectsRead.get();
+	}
+
+	public long getObjectsInserted() {
+		return objectsInserted.get();
+	}
+
+	public long getCommitsWalked() {
+		return commitsWalked.get();
+	}
+
+	public long getRefLockRetries() {
+		return refLockRetries.get();
+	}
+
+	public void reset() {
+		for (Phase each : Phase.values()) {
+			phases.get(each).reset();
+			failures.get(each).set(0);
+		}
+		objectsRead.set(0);
+		objectsInserted.set(0);
+		commitsWalked.set(0);
+		refLockRetries.set(0);
+	}
+
+	/**
+	 * @return one line per phase with its count and p50/p99/max in milliseconds, then the counts
+	 */
+	@Override
+	public String toString() {
+		StringBuilder report = new StringBuilder();
+		for (Phase each : Phase.values()) {
+			Histogram histogram = phases.get(each);
+			report.append(String.format(Locale.ROOT, "%-12s count=%d p50=%.2fms p99=%.2fms max=%.2fms failures=%d%n",
+					each, histogram.getCount(), millis(histogram.getPercentile(0.5)),
+					millis(histogram.getPercentile(0.99)), millis(histogram.getMax()), failures.get(each).get()));
+		}
+		report.append(String.format(Locale.ROOT, "objectsRead=%d objectsInserted=%d commitsWalked=%d refLockRetries=%d",
+				objectsRead.get(), objectsInserted.get(), commitsWalked.get(), refLockRetries.get()));
+		return report.toString();
+	}
+
+	private static double millis(long nanos) {
+		return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+	}
+}
@@ -0,0 +1,43 @@
+package org.junoyoon.gitonline.metrics;
+
+/**
+ * Steps of the online commands which are timed separately.
+ */
+public enum Phase {
+	/**
+	 * resolving a revision or HEAD and parsing its commit
+	 */
+	RESOLVE,
+	/**
+	 * finding and reading the trees to be listed
+	 */
+	TREE_WALK,
+	/**
+	 * storing the contents of the changed files
+	 */
+	BLOB_INSERT,
+	/**
+	 * writing the changed trees and the commits, and flushing them
+	 */
+	TREE_WRITE,
+	/**
+	 * moving HEAD to the new commit
+	 */
+	REF_UPDATE,
+	/**
+	 * walking the history to find the last commits of the listed entries
+	 */
+	HISTORY_WALK,
+	/**
+	 * reading and comparing the contents of changed files
+	 */
+	DIFF,
+	/**
+	 * scanning the contents of files for a pattern
+	 */
+	SEARCH,
+	/**
+	 * adding the new commits to the last-commit and changed-path indexes
+	 */
+	INDEX
+}
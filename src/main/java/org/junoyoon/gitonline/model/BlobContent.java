@@ -0,0 +1,82 @@
+/* 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package org.junoyoon.gitonline.model;
+
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Content of a blob, or of a byte range of it, which is read while it is streamed.
+ * It must be closed once read, even if the stream was not opened to the end.
+ */
+public class BlobContent implements Closeable {
+
+	private final ObjectId objectId;
+	private final FileMode mode;
+	private final long size;
+	private final long offset;
+	private final long length;
+	private final InputStream stream;
+
+	public BlobContent(ObjectId objectId, FileMode mode, long size, long offset, long length, InputStream stream) {
+		this.objectId = objectId;
+		this.mode = mode;
+		this.size = size;
+		this.offset = offset;
+		this.length = length;
+		this.stream = stream;
+	}
+
+	public ObjectId getObjectId() {
+		return objectId;
+	}
+
+	public FileMode getMode() {
+		return mode;
+	}
+
+	/**
+	 * @return size of the whole blob
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return position of the first byte of {@link #getStream()} in the blob
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * @return number of bytes {@link #getStream()} provides
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	public InputStream getStream() {
+		return stream;
+	}
+
+	@Override
+	public void close() throws IOException {
+		stream.close();
+	}
+}
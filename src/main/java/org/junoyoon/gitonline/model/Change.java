@@ -0,0 +1,130 @@
+/* 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package org.junoyoon.gitonline.model;
+
+import org.eclipse.jgit.lib.FileMode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One operation of a changeset which will be committed together with the others.
+ */
+public class Change {
+
+	public enum Type {
+		PUT, DELETE, RENAME
+	}
+
+	private final Type type;
+	private final String path;
+	private final String oldPath;
+	private final FileEntry fileEntry;
+	private final FileMode mode;
+
+	private Change(Type type, String path, String oldPath, FileEntry fileEntry, FileMode mode) {
+		this.type = type;
+		this.path = path;
+		this.oldPath = oldPath;
+		this.fileEntry = fileEntry;
+		this.mode = mode;
+	}
+
+	/**
+	 * Add or update the file at {@link FileEntry#getPath()}.
+	 * The mode of an existing file is kept, a new file becomes a regular file.
+	 */
+	public static Change put(FileEntry fileEntry) {
+		return put(fileEntry, null);
+	}
+
+	/**
+	 * @param mode {@link FileMode#REGULAR_FILE}, {@link FileMode#EXECUTABLE_FILE}, {@link FileMode#SYMLINK},
+	 *             or {@code null} to keep the existing mode
+	 */
+	public static Change put(FileEntry fileEntry, FileMode mode) {
+		return new Change(Type.PUT, fileEntry.getPath(), null, fileEntry, checkMode(mode));
+	}
+
+	/**
+	 * Delete the file or every file under the directory at {@code path}.
+	 */
+	public static Change delete(String path) {
+		return new Change(Type.DELETE, path, null, null, null);
+	}
+
+	/**
+	 * Move the file or the directory at {@code oldPath} to {@code path} without changing the content.
+	 */
+	public static Change rename(String oldPath, String path) {
+		return rename(oldPath, path, null);
+	}
+
+	/**
+	 * @param mode {@link FileMode#REGULAR_FILE}, {@link FileMode#EXECUTABLE_FILE}, {@link FileMode#SYMLINK},
+	 *             or {@code null} to keep the existing mode
+	 */
+	public static Change rename(String oldPath, String path, FileMode mode) {
+		return new Change(Type.RENAME, path, oldPath, null, checkMode(mode));
+	}
+
+	/*
+	 * blob 을 가리키는 entry 의 mode 만 받는다. tree 나 gitlink 로 blob 을 가리키면 tree 가 깨진다.
+	 */
+	private static FileMode checkMode(FileMode mode) {
+		if (mode != null && mode != FileMode.REGULAR_FILE && mode != FileMode.EXECUTABLE_FILE && mode != FileMode.SYMLINK) {
+			throw new IllegalArgumentException("Not a file mode : " + mode);
+		}
+		return mode;
+	}
+
+	public static List<Change> puts(List<FileEntry> fileEntries) {
+		List<Change> changes = new ArrayList<Change>();
+		for (FileEntry each : fileEntries) {
+			changes.add(put(each));
+		}
+		return changes;
+	}
+
+	public static List<Change> deletes(List<FileEntry> fileEntries) {
+		List<Change> changes = new ArrayList<Change>();
+		for (FileEntry each : fileEntries) {
+			changes.add(delete(each.getPath()));
+		}
+		return changes;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public String getOldPath() {
+		return oldPath;
+	}
+
+	public FileEntry getFileEntry() {
+		return fileEntry;
+	}
+
+	/**
+	 * @return the mode to be used, or {@code null} to keep the existing one
+	 */
+	public FileMode getMode() {
+		return mode;
+	}
+}
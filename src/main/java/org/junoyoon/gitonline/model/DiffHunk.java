@@ -0,0 +1,72 @@
+/* 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package org.junoyoon.gitonline.model;
+
+import java.util.List;
+
+/**
+ * A hunk of a unified diff: changed lines with the unchanged lines around them.
+ */
+public class DiffHunk {
+
+	private final int oldStart;
+	private final int oldLines;
+	private final int newStart;
+	private final int newLines;
+	private final List<String> lines;
+
+	public DiffHunk(int oldStart, int oldLines, int newStart, int newLines, List<String> lines) {
+		this.oldStart = oldStart;
+		this.oldLines = oldLines;
+		this.newStart = newStart;
+		this.newLines = newLines;
+		this.lines = lines;
+	}
+
+	/**
+	 * @return 1-based number of the first old line, or of the line before it if there is none
+	 */
+	public int getOldStart() {
+		return oldStart;
+	}
+
+	public int getOldLines() {
+		return oldLines;
+	}
+
+	/**
+	 * @return 1-based number of the first new line, or of the line before it if there is none
+	 */
+	public int getNewStart() {
+		return newStart;
+	}
+
+	public int getNewLines() {
+		return newLines;
+	}
+
+	/**
+	 * @return the lines of the hunk without their line terminator, each prefixed by ' ', '-' or '+'
+	 */
+	public List<String> getLines() {
+		return lines;
+	}
+
+	/**
+	 * @return the {@code @@ -oldStart,oldLines +newStart,newLines @@} line of the hunk
+	 */
+	public String getHeader() {
+		return "@@ -" + oldStart + "," + oldLines + " +" + newStart + "," + newLines + " @@";
+	}
+}
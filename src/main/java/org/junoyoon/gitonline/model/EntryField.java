@@ -0,0 +1,41 @@
+/* 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package org.junoyoon.gitonline.model;
+
+/**
+ * Metadata of a {@link FileEntry} which is computed only when a listing asks for it.
+ * The name, mode, object id and type of an entry are always filled.
+ */
+public enum EntryField {
+	/**
+	 * size of a file, read from the object header
+	 */
+	SIZE,
+	/**
+	 * whether a file looks binary, judged from a fixed-size prefix of its content
+	 */
+	BINARY,
+	/**
+	 * id of the last commit which changed the entry. It needs a history walk unless it is indexed.
+	 */
+	LAST_COMMIT,
+	/**
+	 * message, author and date of the last commit. It implies {@link #LAST_COMMIT}.
+	 */
+	COMMIT_INFO,
+	/**
+	 * total size and number of files under a directory
+	 */
+	DIRECTORY_SIZE
+}
@@ -0,0 +1,121 @@
+/* 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package org.junoyoon.gitonline.model;
+
+import org.eclipse.jgit.diff.DiffEntry.ChangeType;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.util.List;
+
+/**
+ * A file which differs between two revisions.
+ * <p/>
+ * The paths, modes and object ids come from the trees. The hunks are filled only when the contents
+ * are compared, and stay {@code null} if the file is binary or too large to be compared.
+ */
+public class FileDiff {
+
+	private final ChangeType changeType;
+	private final String oldPath;
+	private final String newPath;
+	private final FileMode oldMode;
+	private final FileMode newMode;
+	private final ObjectId oldId;
+	private final ObjectId newId;
+	private boolean binary;
+	private boolean tooLarge;
+	private List<DiffHunk> hunks;
+
+	public FileDiff(ChangeType changeType, String oldPath, String newPath, FileMode oldMode, FileMode newMode,
+					ObjectId oldId, ObjectId newId) {
+		this.changeType = changeType;
+		this.oldPath = oldPath;
+		this.newPath = newPath;
+		this.oldMode = oldMode;
+		this.newMode = newMode;
+		this.oldId = oldId;
+		this.newId = newId;
+	}
+
+	public ChangeType getChangeType() {
+		return changeType;
+	}
+
+	/**
+	 * @return path in the old revision, or {@code null} if the file is added
+	 */
+	public String getOldPath() {
+		return oldPath;
+	}
+
+	/**
+	 * @return path in the new revision, or {@code null} if the file is deleted
+	 */
+	public String getNewPath() {
+		return newPath;
+	}
+
+	public FileMode getOldMode() {
+		return oldMode;
+	}
+
+	public FileMode getNewMode() {
+		return newMode;
+	}
+
+	/**
+	 * @return blob of the old revision, or {@link ObjectId#zeroId()} if the file is added
+	 */
+	public ObjectId getOldId() {
+		return oldId;
+	}
+
+	/**
+	 * @return blob of the new revision, or {@link ObjectId#zeroId()} if the file is deleted
+	 */
+	public ObjectId getNewId() {
+		return newId;
+	}
+
+	public boolean isBinary() {
+		return binary;
+	}
+
+	public void setBinary(boolean binary) {
+		this.binary = binary;
+	}
+
+	/**
+	 * @return {@code true} if a side is larger than the size limit of the diff, and was not read
+	 */
+	public boolean isTooLarge() {
+		return tooLarge;
+	}
+
+	public void setTooLarge(boolean tooLarge) {
+		this.tooLarge = tooLarge;
+	}
+
+	/**
+	 * @return the hunks, or {@code null} if the contents were not compared
+	 */
+	public List<DiffHunk> getHunks() {
+		return hunks;
+	}
+
+	public void setHunks(List<DiffHunk> hunks) {
+		this.hunks = hunks;
+	}
+}
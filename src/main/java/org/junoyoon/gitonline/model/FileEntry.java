@@ -13,6 +13,11 @@
  */
 package org.junoyoon.gitonline.model;
 
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.io.InputStream;
+
 /**
  * File entity which will be stored in git.
  */
@@ -20,6 +25,8 @@ public class FileEntry {
 
 	private String content;
 	private byte[] contentBytes;
+	private InputStream contentStream;
+	private long contentLength = -1;
 	private String path;
 
 	public boolean isDir() {
@@ -55,6 +62,30 @@ public class FileEntry {
 		this.contentBytes = contentBytes;
 	}
 
+	public InputStream getContentStream() {
+		return contentStream;
+	}
+
+	public long getContentLength() {
+		return contentLength;
+	}
+
+	/**
+	 * Set the content as a stream of exactly {@code length} bytes.
+	 * The stream is copied into the object database without being buffered as a whole and
+	 * is closed by the command which consumes it.
+	 *
+	 * @param contentStream content of the file
+	 * @param length        number of bytes {@code contentStream} provides
+	 */
+	public void setContentStream(InputStream contentStream, long length) {
+		if (length < 0) {
+			throw new IllegalArgumentException("length should be known : " + length);
+		}
+		this.contentStream = contentStream;
+		this.contentLength = length;
+	}
+
 	public String getPath() {
 		return path;
 	}
@@ -66,4 +97,111 @@ public class FileEntry {
 	public void setFileSize(long fileSize) {
 		this.fileSize = fileSize;
 	}
+
+	private long fileCount;
+
+	/**
+	 * @return number of files under a directory
+	 */
+	public long getFileCount() {
+		return fileCount;
+	}
+
+	public void setFileCount(long fileCount) {
+		this.fileCount = fileCount;
+	}
+
+	private FileMode mode;
+	private ObjectId objectId;
+	private String commitId;
+
+	public FileMode getMode() {
+		return mode;
+	}
+
+	public void setMode(FileMode mode) {
+		this.mode = mode;
+	}
+
+	public boolean isSymlink() {
+		return mode == FileMode.SYMLINK;
+	}
+
+	public boolean isSubmodule() {
+		return mode == FileMode.GITLINK;
+	}
+
+	/**
+	 * @return id of the blob, tree or, for a submodule, commit of this entry
+	 */
+	public ObjectId getObjectId() {
+		return objectId;
+	}
+
+	public void setObjectId(ObjectId objectId) {
+		this.objectId = objectId;
+	}
+
+	/**
+	 * @return id of the last commit which changed this entry
+	 */
+	public String getCommitId() {
+		return commitId;
+	}
+
+	public void setCommitId(String commitId) {
+		this.commitId = commitId;
+	}
+
+	private boolean binary;
+	private String commitMessage;
+	private String authorName;
+	private String authorEmail;
+	private long commitDate;
+
+	public boolean isBinary() {
+		return binary;
+	}
+
+	public void setBinary(boolean binary) {
+		this.binary = binary;
+	}
+
+	/**
+	 * @return short message of the last commit
+	 */
+	public String getCommitMessage() {
+		return commitMessage;
+	}
+
+	public void setCommitMessage(String commitMessage) {
+		this.commitMessage = commitMessage;
+	}
+
+	public String getAuthorName() {
+		return authorName;
+	}
+
+	public void setAuthorName(String authorName) {
+		this.authorName = authorName;
+	}
+
+	public String getAuthorEmail() {
+		return authorEmail;
+	}
+
+	public void setAuthorEmail(String authorEmail) {
+		this.authorEmail = authorEmail;
+	}
+
+	/**
+	 * @return commit time of the last commit in milliseconds
+	 */
+	public long getCommitDate() {
+		return commitDate;
+	}
+
+	public void setCommitDate(long commitDate) {
+		this.commitDate = commitDate;
+	}
 }
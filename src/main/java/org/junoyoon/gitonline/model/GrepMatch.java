@@ -0,0 +1,59 @@
+/* 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package org.junoyoon.gitonline.model;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * A line of a file which matches a search.
+ */
+public class GrepMatch {
+
+	private final String path;
+	private final ObjectId objectId;
+	private final int lineNumber;
+	private final String line;
+
+	public GrepMatch(String path, ObjectId objectId, int lineNumber, String line) {
+		this.path = path;
+		this.objectId = objectId;
+		this.lineNumber = lineNumber;
+		this.line = line;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * @return blob of the file
+	 */
+	public ObjectId getObjectId() {
+		return objectId;
+	}
+
+	/**
+	 * @return 1-based number of the line
+	 */
+	public int getLineNumber() {
+		return lineNumber;
+	}
+
+	/**
+	 * @return the line without its line terminator, cut at the maximum line length of the search
+	 */
+	public String getLine() {
+		return line;
+	}
+}
@@ -0,0 +1,134 @@
+/* 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package org.junoyoon.gitonline.model;
+
+import java.util.List;
+
+/**
+ * A commit of the history of a path.
+ */
+public class LogEntry {
+
+	private String commitId;
+	private List<String> parentIds;
+	private String path;
+	private String oldPath;
+	private String message;
+	private String authorName;
+	private String authorEmail;
+	private long authorDate;
+	private String committerName;
+	private String committerEmail;
+	private long commitDate;
+
+	public String getCommitId() {
+		return commitId;
+	}
+
+	public void setCommitId(String commitId) {
+		this.commitId = commitId;
+	}
+
+	public List<String> getParentIds() {
+		return parentIds;
+	}
+
+	public void setParentIds(List<String> parentIds) {
+		this.parentIds = parentIds;
+	}
+
+	/**
+	 * @return the followed path as it is in this commit
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	public void setPath(String path) {
+		this.path = path;
+	}
+
+	/**
+	 * @return the path before this commit renamed it, or {@code null} if it was not renamed
+	 */
+	public String getOldPath() {
+		return oldPath;
+	}
+
+	public void setOldPath(String oldPath) {
+		this.oldPath = oldPath;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public void setMessage(String message) {
+		this.message = message;
+	}
+
+	public String getAuthorName() {
+		return authorName;
+	}
+
+	public void setAuthorName(String authorName) {
+		this.authorName = authorName;
+	}
+
+	public String getAuthorEmail() {
+		return authorEmail;
+	}
+
+	public void setAuthorEmail(String authorEmail) {
+		this.authorEmail = authorEmail;
+	}
+
+	/**
+	 * @return milliseconds since the epoch
+	 */
+	public long getAuthorDate() {
+		return authorDate;
+	}
+
+	public void setAuthorDate(long authorDate) {
+		this.authorDate = authorDate;
+	}
+
+	public String getCommitterName() {
+		return committerName;
+	}
+
+	public void setCommitterName(String committerName) {
+		this.committerName = committerName;
+	}
+
+	public String getCommitterEmail() {
+		return committerEmail;
+	}
+
+	public void setCommitterEmail(String committerEmail) {
+		this.committerEmail = committerEmail;
+	}
+
+	/**
+	 * @return milliseconds since the epoch
+	 */
+	public long getCommitDate() {
+		return commitDate;
+	}
+
+	public void setCommitDate(long commitDate) {
+		this.commitDate = commitDate;
+	}
+}
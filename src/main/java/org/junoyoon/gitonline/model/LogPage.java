@@ -0,0 +1,45 @@
+/* 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package org.junoyoon.gitonline.model;
+
+import java.util.List;
+
+/**
+ * A page of the history of a path, newest commits first.
+ */
+public class LogPage {
+
+	private final List<LogEntry> entries;
+	private final String nextCursor;
+
+	public LogPage(List<LogEntry> entries, String nextCursor) {
+		this.entries = entries;
+		this.nextCursor = nextCursor;
+	}
+
+	/**
+	 * @return the commits of the page. There can be fewer than asked even if it is not the last page,
+	 * when the walk of the page reached its limit of commits.
+	 */
+	public List<LogEntry> getEntries() {
+		return entries;
+	}
+
+	/**
+	 * @return cursor of the next page, or {@code null} if the history has no more commits
+	 */
+	public String getNextCursor() {
+		return nextCursor;
+	}
+}
@@ -0,0 +1,41 @@
+/* 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+package org.junoyoon.gitonline.model;
+
+import java.util.List;
+
+/**
+ * A page of a directory listing, in the tree order.
+ */
+public class LsPage {
+
+	private final List<FileEntry> entries;
+	private final String nextPageToken;
+
+	public LsPage(List<FileEntry> entries, String nextPageToken) {
+		this.entries = entries;
+		this.nextPageToken = nextPageToken;
+	}
+
+	public List<FileEntry> getEntries() {
+		return entries;
+	}
+
+	/**
+	 * @return token which lists the entries after this page, or {@code null} if this is the last page
+	 */
+	public String getNextPageToken() {
+		return nextPageToken;
+	}
+}
@@ -1,30 +1,94 @@
 package org.junoyoon.gitonline;
 
+import com.google.common.base.Charsets;
 import com.google.common.io.Files;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.LogCommand;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEditor;
+import org.eclipse.jgit.dircache.DirCacheEntry;
 import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.GC;
+import org.eclipse.jgit.internal.storage.file.PackFile;
 import org.eclipse.jgit.lib.*;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.PackParser;
 import org.eclipse.jgit.treewalk.CanonicalTreeParser;
 import org.eclipse.jgit.treewalk.TreeWalk;
 import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
 import org.eclipse.jgit.util.StringUtils;
 import org.junit.Test;
+import org.junoyoon.gitonline.cmd.AsyncOnlineCommands;
+import org.junoyoon.gitonline.cmd.ChangesetConflictException;
+import org.junoyoon.gitonline.cmd.MaintenanceScheduler;
 import org.junoyoon.gitonline.cmd.OnlineAddCommand;
+import org.junoyoon.gitonline.cmd.OnlineChangesetCommand;
+import org.junoyoon.gitonline.cmd.OnlineDiffCommand;
+import org.junoyoon.gitonline.cmd.OnlineGrepCommand;
+import org.junoyoon.gitonline.cmd.OnlineLogCommand;
 import org.junoyoon.gitonline.cmd.OnlineLsCommand;
+import org.junoyoon.gitonline.cmd.OnlineReadCommand;
 import org.junoyoon.gitonline.cmd.OnlineRmCommand;
+import org.junoyoon.gitonline.cmd.PackInserter;
+import org.junoyoon.gitonline.cmd.RepositoryGenerator;
+import org.junoyoon.gitonline.cmd.RepositoryManager;
+import org.junoyoon.gitonline.cmd.RepositoryWriteQueue;
+import org.junoyoon.gitonline.cmd.TreeListingCache;
+import org.junoyoon.gitonline.cmd.TreeRollupCache;
+import org.junoyoon.gitonline.index.ChangedPathIndex;
+import org.junoyoon.gitonline.index.ChangedPathRevFilter;
+import org.junoyoon.gitonline.index.LastCommitIndex;
+import org.junoyoon.gitonline.metrics.CommandMetrics;
+import org.junoyoon.gitonline.metrics.Histogram;
+import org.junoyoon.gitonline.metrics.Phase;
+import org.junoyoon.gitonline.model.BlobContent;
+import org.junoyoon.gitonline.model.Change;
+import org.junoyoon.gitonline.model.DiffHunk;
+import org.junoyoon.gitonline.model.EntryField;
+import org.junoyoon.gitonline.model.FileDiff;
 import org.junoyoon.gitonline.model.FileEntry;
+import org.junoyoon.gitonline.model.GrepMatch;
+import org.junoyoon.gitonline.model.LogEntry;
+import org.junoyoon.gitonline.model.LogPage;
+import org.junoyoon.gitonline.model.LsPage;
 import org.junoyoon.gitonline.model.User;
 
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.collect.Lists.newArrayList;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Created by junoyoon on 14. 5. 7.
@@ -34,10 +98,11 @@ public class GitCommandTest {
 	public Git getGit() {
 		try {
 			File bareRepoDir = new File(GitCommandTest.class.getResource("/universal-analytics-java.git").getFile());
-			File tempDir = new File("c:/project/target/");
-			FileUtils.deleteDirectory(tempDir);
-			tempDir.mkdirs();
+			// every test gets its own copy, so the repositories do not depend on the platform or on each other
+			File tempDir = Files.createTempDir();
 			File tempWorkTree = Files.createTempDir();
+			FileUtils.forceDeleteOnExit(tempDir);
+			FileUtils.forceDeleteOnExit(tempWorkTree);
 			FileUtils.copyDirectory(bareRepoDir, tempDir);
 			RepositoryBuilder builder = new RepositoryBuilder().setGitDir(tempDir).setWorkTree(tempWorkTree).readEnvironment();
 			FileUtils.deleteQuietly(builder.getIndexFile());
@@ -54,6 +119,563 @@ public class GitCommandTest {
 		addFile(git, "README", "ewewewe");
 	}
 
+	@Test
+	public void testFileAddInCore() throws IOException, GitAPIException {
+		Git git = getGit();
+		Repository repository = git.getRepository();
+		int before = getFileEntries(git, "", "HEAD", true).size();
+		addFile(git, "wwww/REAdDME33", "2222222222222222223333333333");
+
+		RevCommit head = git.log().setMaxCount(1).call().iterator().next();
+		assertEquals("admin", head.getAuthorIdent().getName());
+		assertEquals("admin2", head.getCommitterIdent().getName());
+		assertEquals(before + 1, getFileEntries(git, "", "HEAD", true).size());
+		assertNotNull(TreeWalk.forPath(repository, "wwww/REAdDME33", head.getTree()));
+		assertTrue(!new File(repository.getWorkTree(), "wwww").exists());
+		assertTrue(!repository.getIndexFile().exists());
+	}
+
+	@Test
+	public void testFileAddStream() throws IOException, GitAPIException {
+		Git git = getGit();
+		final long length = 5L * 1024 * 1024;
+		FileEntry fileEntry = new FileEntry();
+		fileEntry.setPath("big/stream.bin");
+		fileEntry.setContentStream(new InputStream() {
+			private long read = 0;
+
+			@Override
+			public int read() throws IOException {
+				return read++ < length ? (int) (read % 251) : -1;
+			}
+		}, length);
+		new OnlineAddCommand().call((FileRepository) git.getRepository(), newArrayList(fileEntry),
+				new User("admin", "admin@gmail.com"), new User("admin2", "admin2@gmail.com"), "ADD STREAM");
+
+		RevCommit head = git.log().setMaxCount(1).call().iterator().next();
+		TreeWalk treeWalk = TreeWalk.forPath(git.getRepository(), "big/stream.bin", head.getTree());
+		assertEquals(length, git.getRepository().open(treeWalk.getObjectId(0)).getSize());
+	}
+
+	@Test
+	public void testRead() throws IOException, GitAPIException {
+		Git git = getGit();
+		addFile(git, "read/digits", "0123456789");
+		OnlineReadCommand read = new OnlineReadCommand(git.getRepository());
+
+		BlobContent whole = read.read("HEAD", "read/digits");
+		try {
+			assertEquals(10, whole.getSize());
+			assertEquals("0123456789", IOUtils.toString(whole.getStream()));
+		} finally {
+			whole.close();
+		}
+
+		BlobContent range = read.read(null, "read/digits", 3, 4);
+		try {
+			assertEquals(10, range.getSize());
+			assertEquals(3, range.getOffset());
+			assertEquals("3456", IOUtils.toString(range.getStream()));
+		} finally {
+			range.close();
+		}
+
+		BlobContent tail = read.read("HEAD", "read/digits", 8, 100);
+		try {
+			assertEquals(2, tail.getLength());
+			assertEquals("89", IOUtils.toString(tail.getStream()));
+		} finally {
+			tail.close();
+		}
+
+		assertNull(read.read("HEAD", "read"));
+		assertNull(read.read("HEAD", "read/none"));
+		try {
+			read.read("HEAD", "read/digits", 11, -1);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testChangeset() throws IOException, GitAPIException {
+		Git git = getGit();
+		addFile(git, "wwww/REAdDME33", "2222222222222222223333333333");
+		addFile(git, "wwww/1wewew/REAd22DME33", "2222222222222222223333333333");
+		RevCommit before = git.log().setMaxCount(1).call().iterator().next();
+
+		FileEntry updated = new FileEntry();
+		updated.setPath("README2");
+		updated.setContent("updated");
+		FileEntry script = new FileEntry();
+		script.setPath("bin/run.sh");
+		script.setContent("#!/bin/sh");
+		RevCommit commit = new OnlineChangesetCommand().apply((FileRepository) git.getRepository(), newArrayList(
+				Change.put(updated),
+				Change.put(script, FileMode.EXECUTABLE_FILE),
+				Change.delete("wwww/REAdDME33"),
+				Change.rename("wwww/1wewew", "moved")),
+				new User("admin", "admin@gmail.com"), new User("admin2", "admin2@gmail.com"), "CHANGESET");
+
+		Repository repository = git.getRepository();
+		assertEquals(before, commit.getParent(0));
+		assertNotNull(TreeWalk.forPath(repository, "README2", commit.getTree()));
+		assertEquals(FileMode.EXECUTABLE_FILE, TreeWalk.forPath(repository, "bin/run.sh", commit.getTree()).getFileMode(0));
+		assertNull(TreeWalk.forPath(repository, "wwww", commit.getTree()));
+		assertNotNull(TreeWalk.forPath(repository, "moved/REAd22DME33", commit.getTree()));
+	}
+
+	@Test
+	public void testChangesetPaths() throws IOException, GitAPIException {
+		Git git = getGit();
+		FileRepository repository = (FileRepository) git.getRepository();
+		addFile(git, "dir/file", "file");
+		User user = new User("admin", "admin@gmail.com");
+		for (String each : new String[]{"/lead", "trail/", "double//slash", "../evil", "a/./b", ".git/config", "a/.GIT"}) {
+			FileEntry fileEntry = new FileEntry();
+			fileEntry.setPath(each);
+			fileEntry.setContent("evil");
+			try {
+				new OnlineChangesetCommand().apply(repository, newArrayList(Change.put(fileEntry)), user, user, "INVALID");
+				fail(each);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+
+		// a missing path below a file is ignored, and does not delete the file
+		RevCommit head = new OnlineChangesetCommand().apply(repository, newArrayList(Change.delete("README.d/nope")),
+				user, user, "DELETE MISSING");
+		assertNotNull(TreeWalk.forPath(repository, "README.d", head.getTree()));
+
+		// a directory becomes a file, and a file a directory, only if it is deleted first
+		FileEntry overDirectory = new FileEntry();
+		overDirectory.setPath("dir");
+		overDirectory.setContent("file");
+		FileEntry belowFile = new FileEntry();
+		belowFile.setPath("README.d/file");
+		belowFile.setContent("file");
+		for (FileEntry each : newArrayList(overDirectory, belowFile)) {
+			try {
+				new OnlineChangesetCommand().apply(repository, newArrayList(Change.put(each)), user, user, "REPLACE");
+				fail(each.getPath());
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+		head = new OnlineChangesetCommand().apply(repository, newArrayList(Change.delete("dir"), Change.put(overDirectory)),
+				user, user, "REPLACE");
+		assertEquals(FileMode.REGULAR_FILE, TreeWalk.forPath(repository, "dir", head.getTree()).getFileMode(0));
+	}
+
+	@Test
+	public void testChangeModes() {
+		FileEntry fileEntry = new FileEntry();
+		fileEntry.setPath("file");
+		fileEntry.setContent("file");
+		for (FileMode each : new FileMode[]{FileMode.REGULAR_FILE, FileMode.EXECUTABLE_FILE, FileMode.SYMLINK, null}) {
+			assertSame(each, Change.put(fileEntry, each).getMode());
+			assertSame(each, Change.rename("file", "moved", each).getMode());
+		}
+		// a tree entry must not point to a blob
+		for (FileMode each : new FileMode[]{FileMode.TREE, FileMode.GITLINK, FileMode.MISSING}) {
+			try {
+				Change.put(fileEntry, each);
+				fail(each.toString());
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+			try {
+				Change.rename("file", "moved", each);
+				fail(each.toString());
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testConcurrentWriters() throws Exception {
+		final Git git = getGit();
+		final int writers = 16;
+		RevCommit before = git.log().setMaxCount(1).call().iterator().next();
+		ExecutorService executor = Executors.newFixedThreadPool(writers);
+		List<Future<?>> futures = newArrayList();
+		for (int i = 0; i < writers; i++) {
+			final int index = i;
+			futures.add(executor.submit(new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					addFile(git, "concurrent/file" + index, "content" + index);
+					return null;
+				}
+			}));
+		}
+		for (Future<?> each : futures) {
+			each.get();
+		}
+		executor.shutdown();
+
+		RepositoryWriteQueue queue = RepositoryWriteQueue.get((FileRepository) git.getRepository());
+		assertEquals(0, queue.getQueueDepth());
+		assertTrue(queue.getBatchCount() <= queue.getRequestCount());
+		int count = 0;
+		for (RevCommit each : git.log().addRange(before, git.getRepository().resolve("HEAD")).call()) {
+			count++;
+		}
+		assertEquals(writers, count);
+		assertEquals(writers, getFileEntries(git, "concurrent", "HEAD", true).size());
+	}
+
+	@Test
+	public void testAsyncCommands() throws Exception {
+		Git git = getGit();
+		FileRepository repository = (FileRepository) git.getRepository();
+		AsyncOnlineCommands commands = new AsyncOnlineCommands(Executors.newFixedThreadPool(4));
+		try {
+			List<CompletableFuture<RevCommit>> commits = newArrayList();
+			for (int i = 0; i < 10; i++) {
+				FileEntry fileEntry = new FileEntry();
+				fileEntry.setPath("async/file");
+				fileEntry.setContent("content " + i);
+				commits.add(commands.add(repository, newArrayList(fileEntry),
+						new User("admin", "admin@gmail.com"), new User("admin2", "admin2@gmail.com"), "ASYNC " + i));
+			}
+			// every write is committed on top of the one submitted before it
+			for (int i = 1; i < commits.size(); i++) {
+				assertEquals(commits.get(i - 1).get(), commits.get(i).get().getParent(0));
+			}
+			assertEquals(repository.resolve("HEAD"), commits.get(9).get());
+
+			List<FileEntry> entries = commands.getLs(repository, "HEAD", "async").get();
+			assertEquals(1, entries.size());
+			assertEquals(commits.get(9).get().getName(), entries.get(0).getCommitId());
+			BlobContent content = commands.read(repository, "HEAD", "async/file", 0, -1).get();
+			try {
+				assertEquals("content 9", IOUtils.toString(content.getStream(), "UTF-8"));
+			} finally {
+				content.close();
+			}
+		} finally {
+			commands.shutdown();
+		}
+	}
+
+	@Test
+	public void testBulkImportPack() throws IOException, GitAPIException {
+		Git git = getGit();
+		FileRepository repository = (FileRepository) git.getRepository();
+		RepositoryWriteQueue.get(repository).setUnpackLimit(10);
+		int packs = repository.getObjectDatabase().getPacks().size();
+		int looseObjects = FileUtils.listFiles(repository.getObjectDatabase().getDirectory(), null, true).size();
+
+		byte[] large = new byte[200 * 1024];
+		for (int i = 0; i < large.length; i++) {
+			large[i] = (byte) ('a' + i % 26);
+		}
+		List<FileEntry> fileEntries = newArrayList();
+		for (int i = 0; i < 20; i++) {
+			FileEntry fileEntry = new FileEntry();
+			fileEntry.setPath("bulk/dir" + (i % 3) + "/file" + i);
+			if (i < 2) {
+				// the same large content twice is stored once
+				fileEntry.setContentStream(new ByteArrayInputStream(large), large.length);
+			} else {
+				fileEntry.setContent("content " + i);
+			}
+			fileEntries.add(fileEntry);
+		}
+		RevCommit commit = new OnlineChangesetCommand().apply(repository, Change.puts(fileEntries),
+				new User("admin", "admin@gmail.com"), new User("admin2", "admin2@gmail.com"), "BULK");
+
+		assertEquals(1, RepositoryWriteQueue.get(repository).getPackCount());
+		assertEquals(packs + 1, repository.getObjectDatabase().getPacks().size());
+		// 2 new files, the pack and its index
+		assertEquals(looseObjects + 2, FileUtils.listFiles(repository.getObjectDatabase().getDirectory(), null, true).size());
+		assertEquals(repository.resolve("HEAD"), commit);
+		BlobContent content = new OnlineReadCommand(repository).read("HEAD", "bulk/dir1/file1");
+		try {
+			assertArrayEquals(large, IOUtils.toByteArray(content.getStream()));
+		} finally {
+			content.close();
+		}
+		assertEquals(7, new OnlineLsCommand(repository).getLs("HEAD", "bulk/dir0").size());
+
+		// objects the repository already has are not written again
+		PackInserter inserter = new PackInserter(repository);
+		try {
+			inserter.insert(Constants.OBJ_BLOB, Constants.encode("content 2"));
+			inserter.insert(Constants.OBJ_BLOB, large.length, new ByteArrayInputStream(large));
+			inserter.flush();
+		} finally {
+			inserter.release();
+		}
+		assertEquals(packs + 1, repository.getObjectDatabase().getPacks().size());
+
+		// a small commit after the import writes loose objects again
+		addFile(git, "bulk/small", "small");
+		assertEquals(1, RepositoryWriteQueue.get(repository).getPackCount());
+	}
+
+	@Test
+	public void testBulkImportPackSkipsShortStream() throws Exception {
+		Git git = getGit();
+		final FileRepository repository = (FileRepository) git.getRepository();
+		final RepositoryWriteQueue queue = RepositoryWriteQueue.get(repository).setUnpackLimit(10);
+		Set<File> packs = new HashSet<File>();
+		for (PackFile each : repository.getObjectDatabase().getPacks()) {
+			packs.add(each.getPackFile());
+		}
+
+		List<List<FileEntry>> changesets = newArrayList();
+		for (int i = 0; i < 3; i++) {
+			List<FileEntry> fileEntries = newArrayList();
+			for (int j = 0; j < 5; j++) {
+				FileEntry fileEntry = new FileEntry();
+				fileEntry.setPath("short/" + i + "/file" + j);
+				if (i == 1 && j == 2) {
+					// ends before the declared length, after part of it is written into the pack
+					fileEntry.setContentStream(new ByteArrayInputStream(new byte[100 * 1024]), 200 * 1024);
+				} else {
+					fileEntry.setContent("content " + i + " " + j);
+				}
+				fileEntries.add(fileEntry);
+			}
+			changesets.add(fileEntries);
+		}
+		// the changesets are all queued before the executor starts, so they are committed as one batch
+		final CountDownLatch queued = new CountDownLatch(1);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		List<CompletableFuture<RevCommit>> futures = newArrayList();
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						queued.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+			for (List<FileEntry> each : changesets) {
+				futures.add(queue.submit(repository, Change.puts(each), new User("admin", "admin@gmail.com"),
+						new User("admin", "admin@gmail.com"), "SHORT", new CommandMetrics(), executor));
+			}
+			queued.countDown();
+			futures.get(0).get(10, TimeUnit.SECONDS);
+			futures.get(2).get(10, TimeUnit.SECONDS);
+			try {
+				futures.get(1).get(10, TimeUnit.SECONDS);
+				fail();
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause().getCause() instanceof EOFException);
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(5, new OnlineLsCommand(repository).getLs("HEAD", "short/0").size());
+		assertEquals(5, new OnlineLsCommand(repository).getLs("HEAD", "short/2").size());
+		assertNull(new OnlineLsCommand(repository).getLs("HEAD", "short/1"));
+
+		// the new pack holds no part of the failed blob, so a parser finds exactly the objects of its header
+		int parsed = 0;
+		for (PackFile each : repository.getObjectDatabase().getPacks()) {
+			if (packs.contains(each.getPackFile())) {
+				continue;
+			}
+			ObjectInserter inserter = repository.newObjectInserter();
+			InputStream in = new FileInputStream(each.getPackFile());
+			try {
+				PackParser parser = inserter.newPackParser(in);
+				parser.parse(NullProgressMonitor.INSTANCE);
+				inserter.flush();
+				parsed++;
+			} finally {
+				in.close();
+				inserter.release();
+			}
+		}
+		assertEquals(1, parsed);
+	}
+
+	@Test
+	public void testWriteQueueFailsBatchOnError() throws Exception {
+		Git git = getGit();
+		FileRepository repository = (FileRepository) git.getRepository();
+		CommandMetrics broken = new CommandMetrics() {
+			@Override
+			public void onPhase(Phase phase, long nanos) {
+				throw new AssertionError("broken listener");
+			}
+		};
+		FileEntry fileEntry = new FileEntry();
+		fileEntry.setPath("error/a");
+		fileEntry.setContent("a");
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			RepositoryWriteQueue.get(repository).submit(repository, Change.puts(newArrayList(fileEntry)),
+					new User("admin", "admin@gmail.com"), new User("admin", "admin@gmail.com"), "ERROR", broken, executor)
+					.get(10, TimeUnit.SECONDS);
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause().getCause() instanceof AssertionError);
+		} finally {
+			executor.shutdown();
+		}
+		addFile(git, "error/b", "b");
+		assertEquals(1, new OnlineLsCommand(repository).getLs("HEAD", "error").size());
+	}
+
+	@Test
+	public void testWriteQueueReportsIndexFailure() throws Exception {
+		Git git = getGit();
+		FileRepository repository = (FileRepository) git.getRepository();
+		// the indexes can not be written under a file
+		Files.touch(new File(repository.getDirectory(), "online"));
+		FileEntry fileEntry = new FileEntry();
+		fileEntry.setPath("index/a");
+		fileEntry.setContent("a");
+		CommandMetrics metrics = new CommandMetrics();
+		RepositoryWriteQueue queue = RepositoryWriteQueue.get(repository);
+		RevCommit commit = queue.commit(repository, Change.puts(newArrayList(fileEntry)),
+				new User("admin", "admin@gmail.com"), new User("admin", "admin@gmail.com"), "INDEX", metrics);
+		assertEquals(repository.resolve("HEAD"), commit);
+		assertEquals(1, queue.getIndexFailureCount());
+		assertEquals(1, metrics.getFailureCount(Phase.INDEX));
+	}
+
+	@Test
+	public void testMaintenanceScheduler() throws Exception {
+		Git git = getGit();
+		FileRepository repository = (FileRepository) git.getRepository();
+		long looseObjects = new GC(repository).getStatistics().numberOfLooseObjects;
+		assertTrue(looseObjects > 0);
+
+		MaintenanceScheduler scheduler = new MaintenanceScheduler().setCheckEvery(2).setRepackLimits(0, 0)
+				.setLooseRefLimit(0).setRateLimit(0, 0);
+		RepositoryWriteQueue.get(repository).setMaintenanceScheduler(scheduler);
+		try {
+			addFile(git, "maintenance/a", "a");
+			assertEquals(0, scheduler.getRunCount());
+			addFile(git, "maintenance/b", "b");
+			for (int i = 0; i < 100 && scheduler.getRunCount() == 0; i++) {
+				Thread.sleep(100);
+			}
+			// the run may still be going
+			scheduler.shutdown();
+			assertTrue(scheduler.awaitTermination(10, TimeUnit.SECONDS));
+		} finally {
+			RepositoryWriteQueue.get(repository).setMaintenanceScheduler(null);
+		}
+		assertNull(scheduler.getLastFailure());
+		assertEquals(1, scheduler.getRepackCount());
+		assertEquals(1, scheduler.getPackRefsCount());
+		GC.RepoStatistics statistics = new GC(repository).getStatistics();
+		// only the unreachable objects, which are too young to be pruned, are left loose
+		assertTrue(statistics.numberOfLooseObjects < looseObjects);
+		// HEAD is always loose
+		assertEquals(1, statistics.numberOfLooseRefs);
+		assertEquals(2, new OnlineLsCommand(repository).getLs("HEAD", "maintenance").size());
+		addFile(git, "maintenance/c", "c");
+		assertEquals(3, new OnlineLsCommand(repository).getLs("HEAD", "maintenance").size());
+	}
+
+	@Test
+	public void testRepackKeepsPackBeingWritten() throws Exception {
+		FileRepository repository = (FileRepository) getGit().getRepository();
+		PackInserter inserter = new PackInserter(repository);
+		try {
+			ObjectId blobId = inserter.insert(Constants.OBJ_BLOB, Constants.encode("not referenced yet"));
+			inserter.flush();
+			new MaintenanceScheduler().setRepackLimits(0, 0).maintain(repository);
+			assertTrue(repository.hasObject(blobId));
+		} finally {
+			inserter.release();
+		}
+	}
+
+	@Test
+	public void testRebaseOnExternalCommit() throws Exception {
+		final Git git = getGit();
+		addFile(git, "wwww/REAdDME33", "2222222222222222223333333333");
+		RevCommit commit = new OnlineChangesetCommand().apply((FileRepository) git.getRepository(),
+				newArrayList(Change.put(streamedEntry(git, "README2", "other/file"))),
+				new User("admin", "admin@gmail.com"), new User("admin2", "admin2@gmail.com"), "REBASED");
+
+		Repository repository = git.getRepository();
+		assertEquals("EXTERNAL", new RevWalk(repository).parseCommit(commit.getParent(0)).getShortMessage());
+		assertNotNull(TreeWalk.forPath(repository, "other/file", commit.getTree()));
+		assertNotNull(TreeWalk.forPath(repository, "README2", commit.getTree()));
+	}
+
+	@Test(expected = ChangesetConflictException.class)
+	public void testConflictOnExternalCommit() throws Exception {
+		final Git git = getGit();
+		new OnlineChangesetCommand().apply((FileRepository) git.getRepository(),
+				newArrayList(Change.put(streamedEntry(git, "README2", "README2"))),
+				new User("admin", "admin@gmail.com"), new User("admin2", "admin2@gmail.com"), "CONFLICT");
+	}
+
+	/*
+	 * 내용을 읽는 순간 queue 를 거치지 않고 externalPath 를 commit 하는 FileEntry
+	 */
+	private FileEntry streamedEntry(final Git git, String path, final String externalPath) {
+		final byte[] content = "streamed".getBytes();
+		FileEntry fileEntry = new FileEntry();
+		fileEntry.setPath(path);
+		fileEntry.setContentStream(new ByteArrayInputStream(content) {
+			private boolean committed = false;
+
+			@Override
+			public synchronized int read(byte[] b, int off, int len) {
+				if (!committed) {
+					committed = true;
+					externalCommit(git.getRepository(), externalPath);
+				}
+				return super.read(b, off, len);
+			}
+		}, content.length);
+		return fileEntry;
+	}
+
+	private void externalCommit(Repository repository, String path) {
+		ObjectInserter inserter = repository.newObjectInserter();
+		try {
+			ObjectId headId = repository.resolve("HEAD^{commit}");
+			DirCache dc = DirCache.newInCore();
+			DirCacheBuilder builder = dc.builder();
+			builder.addTree(new byte[0], 0, repository.newObjectReader(), new RevWalk(repository).parseTree(headId));
+			builder.finish();
+			DirCacheEditor editor = dc.editor();
+			final ObjectId blobId = inserter.insert(Constants.OBJ_BLOB, "external".getBytes());
+			editor.add(new DirCacheEditor.PathEdit(path) {
+				@Override
+				public void apply(DirCacheEntry ent) {
+					ent.setFileMode(FileMode.REGULAR_FILE);
+					ent.setObjectId(blobId);
+				}
+			});
+			editor.finish();
+			CommitBuilder commit = new CommitBuilder();
+			commit.setTreeId(dc.writeTree(inserter));
+			commit.setParentId(headId);
+			commit.setAuthor(new PersonIdent("external", "external@gmail.com"));
+			commit.setCommitter(new PersonIdent("external", "external@gmail.com"));
+			commit.setMessage("EXTERNAL");
+			ObjectId commitId = inserter.insert(commit);
+			inserter.flush();
+			RefUpdate ru = repository.updateRef("HEAD");
+			ru.setNewObjectId(commitId);
+			ru.forceUpdate();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			inserter.release();
+		}
+	}
+
 	private void addFile(Git git, String path, String content) throws GitAPIException {
 		String originalRev = null;
 		// Add file to bare repo
@@ -152,16 +774,639 @@ public class GitCommandTest {
 		}
 	}
 
+	@Test
+	public void testLastCommitIndex() throws Exception {
+		Git git = getGit();
+		Repository repository = git.getRepository();
+		addFile(git, "wwww/REAdDME33", "1");
+		addFile(git, "wwww/1wewew/REAd22DME33", "2");
+		OnlineLsCommand indexed = new OnlineLsCommand(repository);
+		OnlineLsCommand walked = new OnlineLsCommand(repository).setUseLastCommitIndex(false);
+		assertLastCommits(walked.getLs("HEAD", "wwww"), indexed.getLs("HEAD", "wwww"));
+		assertLastCommits(walked.getLs("HEAD", ""), indexed.getLs("HEAD", ""));
+
+		// carried over by the online commit
+		ObjectId parentId = repository.resolve("HEAD");
+		addFile(git, "wwww/1wewew/REAd22DME33", "3");
+		LastCommitIndex index = new LastCommitIndex(repository);
+		assertNotNull(index.get(repository.resolve("HEAD"), "wwww"));
+		assertFalse(new File(repository.getDirectory(), "online/last-commit/" + parentId.name()).exists());
+		assertLastCommits(walked.getLs("HEAD", "wwww"), indexed.getLs("HEAD", "wwww"));
+
+		// derived lazily for a commit made outside
+		externalCommit(repository, "wwww/external");
+		assertNotNull(index.get(repository.resolve("HEAD"), "wwww"));
+		assertLastCommits(walked.getLs("HEAD", "wwww"), indexed.getLs("HEAD", "wwww"));
+		assertLastCommits(walked.getLs("HEAD", ""), indexed.getLs("HEAD", ""));
+
+		// an old revision listed by its id is dropped by the maintenance, the tip of a ref is kept
+		File root = new File(repository.getDirectory(), "online/last-commit");
+		indexed.getLs(parentId.name(), "wwww");
+		assertTrue(new File(root, parentId.name()).isDirectory());
+		new MaintenanceScheduler().maintain((FileRepository) repository);
+		assertFalse(new File(root, parentId.name()).exists());
+		assertTrue(new File(root, repository.resolve("HEAD").name()).isDirectory());
+	}
+
+	private void assertLastCommits(List<FileEntry> expected, List<FileEntry> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).getPath(), actual.get(i).getPath());
+			assertEquals(expected.get(i).getCommitId(), actual.get(i).getCommitId());
+		}
+	}
+
+	@Test
+	public void testChangedPathIndex() throws IOException, GitAPIException {
+		Git git = getGit();
+		Repository repository = git.getRepository();
+		ChangedPathIndex index = ChangedPathIndex.get(repository);
+		index.build();
+		addFile(git, "wwww/REAdDME33", "1");
+		addFile(git, "other", "2");
+		addFile(git, "wwww/1wewew/REAd22DME33", "3");
+		assertTrue(index.contains(repository.resolve("HEAD")));
+
+		ChangedPathRevFilter filtered = new ChangedPathRevFilter(index, "wwww");
+		assertEquals(pathLog(repository, new ChangedPathRevFilter(null, "wwww")), pathLog(repository, filtered));
+		assertEquals(2, pathLog(repository, filtered).size());
+		assertTrue(filtered.getSkipped() > 0);
+		assertEquals(pathLog(repository, new ChangedPathRevFilter(null, "README.d")),
+				pathLog(repository, new ChangedPathRevFilter(index, "README.d")));
+
+		ChangedPathIndex.remove(repository);
+		assertNotSame(index, ChangedPathIndex.get(repository));
+	}
+
+	@Test
+	public void testChangedPathIndexTornRecord() throws Exception {
+		Git git = getGit();
+		FileRepository repository = (FileRepository) git.getRepository();
+		MaintenanceScheduler scheduler = new MaintenanceScheduler();
+		scheduler.maintain(repository);
+		assertTrue(scheduler.getIndexedCommitCount() > 0);
+		assertTrue(ChangedPathIndex.get(repository).contains(repository.resolve("HEAD")));
+
+		// a record torn by a crash is cut off before the next one is appended
+		File file = new File(repository.getDirectory(), "online/changed-paths");
+		long length = file.length();
+		Files.append("torn", file, Charsets.UTF_8);
+		addFile(git, "wwww/REAdDME33", "1");
+		byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+		System.arraycopy(Files.toByteArray(file), (int) length, raw, 0, raw.length);
+		assertEquals(repository.resolve("HEAD"), ObjectId.fromRaw(raw));
+	}
+
+	private List<ObjectId> pathLog(Repository repository, ChangedPathRevFilter filter) throws IOException {
+		RevWalk revWalk = new RevWalk(repository);
+		revWalk.markStart(revWalk.parseCommit(repository.resolve("HEAD")));
+		revWalk.setRevFilter(filter);
+		List<ObjectId> commits = newArrayList();
+		for (RevCommit each : revWalk) {
+			commits.add(each.copy());
+		}
+		revWalk.dispose();
+		return commits;
+	}
+
+	@Test
+	public void testParallelLastCommits() throws IOException, GitAPIException {
+		Git git = getGit();
+		Repository repository = git.getRepository();
+		for (int i = 0; i < 40; i++) {
+			addFile(git, "many/file" + i, "content" + i);
+			if (i % 3 == 0) {
+				addFile(git, "many/file" + (i / 2), "updated" + i);
+			}
+		}
+		OnlineLsCommand serial = new OnlineLsCommand(repository).setUseLastCommitIndex(false).setAttributionPool(null, 0);
+		OnlineLsCommand parallel = new OnlineLsCommand(repository).setUseLastCommitIndex(false)
+				.setAttributionPool(new ForkJoinPool(4), 4);
+		assertLastCommits(serial.getLs("HEAD", "many"), parallel.getLs("HEAD", "many"));
+	}
+
+	@Test
+	public void testRepositoryManager() throws IOException, GitAPIException {
+		Git git = getGit();
+		addFile(git, "pooled/a", "a");
+		addFile(git, "pooled/b", "b");
+		RepositoryManager manager = new RepositoryManager(4);
+		try {
+			Repository repository = manager.open(git.getRepository().getDirectory());
+			assertSame(repository, manager.open(git.getRepository().getDirectory()));
+			OnlineLsCommand pooled = new OnlineLsCommand(repository).setUseLastCommitIndex(false)
+					.setRepositoryManager(manager);
+			OnlineLsCommand plain = new OnlineLsCommand(git.getRepository()).setUseLastCommitIndex(false);
+			for (int i = 0; i < 3; i++) {
+				assertLastCommits(plain.getLs("HEAD", "pooled"), pooled.getLs("HEAD", "pooled"));
+				assertLastCommits(plain.getLs("HEAD", "pooled/a"), pooled.getLs("HEAD", "pooled/a"));
+				assertTrue(pooled.isFile("pooled/a", "HEAD"));
+			}
+			// every call after the first one reuses the walks given back by the previous ones
+			assertTrue(manager.getReusedCount() > 0);
+			assertTrue(manager.getCreatedCount() <= 4);
+		} finally {
+			manager.close();
+		}
+	}
+
+	@Test
+	public void testTreeListingCache() throws IOException, GitAPIException {
+		Git git = getGit();
+		Repository repository = git.getRepository();
+		addFile(git, "cached/a", "a");
+		addFile(git, "cached/b", "b");
+		addFile(git, "other/c", "c");
+
+		TreeListingCache cache = new TreeListingCache();
+		OnlineLsCommand cached = new OnlineLsCommand(repository).setUseLastCommitIndex(false).setTreeListingCache(cache);
+		OnlineLsCommand plain = new OnlineLsCommand(repository).setUseLastCommitIndex(false).setTreeListingCache(null);
+		assertLastCommits(plain.getLs("HEAD", "cached"), cached.getLs("HEAD", "cached"));
+		long misses = cache.getMissCount();
+		assertTrue(misses > 0);
+
+		// the history walk and the second listing read the same trees again
+		assertTrue(cache.getHitCount() > 0);
+		long hits = cache.getHitCount();
+		assertLastCommits(plain.getLs("HEAD", "cached"), cached.getLs("HEAD", "cached"));
+		assertTrue(cache.getHitCount() > hits);
+		assertEquals(misses, cache.getMissCount());
+
+		// a budget of one listing keeps only the most recent one
+		TreeListingCache small = new TreeListingCache(400);
+		OnlineLsCommand evicting = new OnlineLsCommand(repository).setUseLastCommitIndex(false).setTreeListingCache(small);
+		assertLastCommits(plain.getLs("HEAD", ""), evicting.getLs("HEAD", ""));
+		assertTrue(small.getEvictionCount() > 0);
+		assertTrue(small.size() <= 1);
+	}
+
+	@Test
+	public void testLsFields() throws IOException, GitAPIException {
+		Git git = getGit();
+		Repository repository = git.getRepository();
+		addFile(git, "meta/text", "hello");
+		FileEntry binary = new FileEntry();
+		binary.setPath("meta/binary");
+		binary.setContentBytes(new byte[]{'G', 'I', 'F', 0, 1, 2});
+		new OnlineAddCommand().call((FileRepository) repository, newArrayList(binary),
+				new User("admin", "admin@gmail.com"), new User("admin2", "admin2@gmail.com"), "ADD BINARY");
+
+		OnlineLsCommand ls = new OnlineLsCommand(repository).setUseLastCommitIndex(false);
+		for (FileEntry each : ls.getLs("HEAD", "meta", EnumSet.noneOf(EntryField.class))) {
+			assertNull(each.getCommitId());
+			assertEquals(0, each.getFileSize());
+		}
+
+		List<FileEntry> sniffed = ls.getLs("HEAD", "meta", EnumSet.of(EntryField.BINARY));
+		assertEquals("meta/binary", sniffed.get(0).getPath());
+		assertTrue(sniffed.get(0).isBinary());
+		assertEquals(6, sniffed.get(0).getFileSize());
+		assertTrue(!sniffed.get(1).isBinary());
+		assertNull(sniffed.get(1).getCommitId());
+
+		List<FileEntry> rich = ls.getLs("HEAD", "meta", EnumSet.of(EntryField.COMMIT_INFO));
+		assertEquals("ADD BINARY", rich.get(0).getCommitMessage());
+		assertEquals("ADD", rich.get(1).getCommitMessage());
+		assertEquals("admin", rich.get(1).getAuthorName());
+		assertEquals("admin@gmail.com", rich.get(1).getAuthorEmail());
+		assertTrue(rich.get(1).getCommitDate() > 0);
+
+		FileEntry file = ls.getLs("HEAD", "meta/text", EnumSet.of(EntryField.SIZE)).get(0);
+		assertEquals(5, file.getFileSize());
+		assertNull(file.getCommitId());
+	}
+
+	@Test
+	public void testLsPage() throws IOException, GitAPIException {
+		Git git = getGit();
+		Repository repository = git.getRepository();
+		List<FileEntry> changes = newArrayList();
+		for (String each : new String[]{"a.b", "b", "c"}) {
+			FileEntry fileEntry = new FileEntry();
+			fileEntry.setPath("paged/" + each);
+			fileEntry.setContent(each);
+			changes.add(fileEntry);
+		}
+		FileEntry nested = new FileEntry();
+		nested.setPath("paged/a/x");
+		nested.setContent("x");
+		changes.add(nested);
+		new OnlineAddCommand().call((FileRepository) repository, changes,
+				new User("admin", "admin@gmail.com"), new User("admin2", "admin2@gmail.com"), "ADD PAGED");
+		OnlineLsCommand ls = new OnlineLsCommand(repository);
+
+		// "a" is a directory, which sorts after "a.b"
+		List<String> paths = newArrayList();
+		LsPage page = ls.getLsPage("HEAD", "paged", null, 2, OnlineLsCommand.DEFAULT_FIELDS);
+		int pages = 0;
+		while (true) {
+			pages++;
+			assertTrue(page.getEntries().size() <= 2);
+			for (FileEntry each : page.getEntries()) {
+				assertNotNull(each.getCommitId());
+				paths.add(each.getPath());
+			}
+			if (page.getNextPageToken() == null) {
+				break;
+			}
+			page = ls.getLsPage("HEAD", "paged", page.getNextPageToken(), 2, OnlineLsCommand.DEFAULT_FIELDS);
+		}
+		assertEquals(2, pages);
+		assertEquals(newArrayList("paged/a.b", "paged/a", "paged/b", "paged/c"), paths);
+
+		// a token of an entry which is not there any more resumes where it would have been
+		page = ls.getLsPage("HEAD", "paged", "a0", 0, OnlineLsCommand.DEFAULT_FIELDS);
+		assertEquals("paged/b", page.getEntries().get(0).getPath());
+		assertNull(page.getNextPageToken());
+	}
+
+	@Test
+	public void testLog() throws IOException, GitAPIException {
+		Git git = getGit();
+		Repository repository = git.getRepository();
+		for (int i = 0; i < 5; i++) {
+			addFile(git, "log/a.txt", "a" + i);
+			addFile(git, "log/other", "other" + i);
+		}
+		new OnlineChangesetCommand().apply((FileRepository) repository, newArrayList(Change.rename("log/a.txt", "log/b.txt")),
+				new User("admin", "admin@gmail.com"), new User("admin2", "admin2@gmail.com"), "RENAME");
+		addFile(git, "log/b.txt", "b0");
+		addFile(git, "log/b.txt", "b1");
+
+		// without following, the history of b.txt starts at the rename
+		List<LogEntry> entries = log(new OnlineLogCommand(repository), "log/b.txt", 2);
+		assertEquals(3, entries.size());
+		assertEquals("RENAME", entries.get(2).getMessage());
+		assertNull(entries.get(2).getOldPath());
+
+		List<LogEntry> followed = log(new OnlineLogCommand(repository).setFollowRenames(true), "log/b.txt", 2);
+		assertEquals(8, followed.size());
+		assertEquals("log/b.txt", followed.get(2).getPath());
+		assertEquals("log/a.txt", followed.get(2).getOldPath());
+		for (LogEntry each : followed.subList(3, 8)) {
+			assertEquals("log/a.txt", each.getPath());
+			assertEquals("ADD", each.getMessage());
+		}
+
+		// a page which visits a single commit may be empty, but the walk goes on from its cursor
+		OnlineLogCommand bounded = new OnlineLogCommand(repository).setFollowRenames(true).setMaxCommitsPerPage(1);
+		LogPage page = bounded.getLog("HEAD", "log/b.txt", null, 10);
+		assertEquals(1, page.getEntries().size());
+		assertNotNull(page.getNextCursor());
+		page = bounded.getLog(null, null, page.getNextCursor(), 10);
+		assertEquals(1, page.getEntries().size());
+		page = bounded.getLog(null, null, page.getNextCursor(), 10);
+		assertEquals("log/a.txt", page.getEntries().get(0).getOldPath());
+		page = bounded.getLog(null, null, page.getNextCursor(), 10);
+		assertTrue(page.getEntries().isEmpty());
+		assertNotNull(page.getNextCursor());
+		assertEquals(commitIds(followed), commitIds(log(bounded, "log/b.txt", 10)));
+
+		// a directory lists the commits which changed anything under it
+		assertEquals(13, log(new OnlineLogCommand(repository), "log", 0).size());
+		assertNull(new OnlineLogCommand(repository).getLog("unknown", "log", null, 10));
+	}
+
+	private List<LogEntry> log(OnlineLogCommand command, String path, int limit) throws IOException {
+		List<LogEntry> result = newArrayList();
+		LogPage page = command.getLog("HEAD", path, null, limit);
+		while (true) {
+			assertTrue(limit <= 0 || page.getEntries().size() <= limit);
+			result.addAll(page.getEntries());
+			if (page.getNextCursor() == null) {
+				return result;
+			}
+			page = command.getLog(null, null, page.getNextCursor(), limit);
+		}
+	}
+
+	private List<String> commitIds(List<LogEntry> entries) {
+		List<String> result = newArrayList();
+		for (LogEntry each : entries) {
+			result.add(each.getCommitId());
+		}
+		return result;
+	}
+
+	@Test
+	public void testDiff() throws IOException, GitAPIException {
+		Git git = getGit();
+		Repository repository = git.getRepository();
+		StringBuilder text = new StringBuilder();
+		StringBuilder changed = new StringBuilder();
+		StringBuilder big = new StringBuilder();
+		for (int i = 1; i <= 20; i++) {
+			text.append("line").append(i).append('\n');
+			changed.append(i == 10 || i == 20 ? "changed" : "line").append(i).append('\n');
+		}
+		for (int i = 0; i < 100; i++) {
+			big.append("big line ").append(i).append('\n');
+		}
+		addFile(git, "diff/a.txt", text.toString());
+		addFile(git, "diff/big.txt", big.toString());
+		RevCommit before = git.log().setMaxCount(1).call().iterator().next();
+
+		FileEntry a = new FileEntry();
+		a.setPath("diff/a.txt");
+		a.setContent(changed.toString());
+		FileEntry bigChanged = new FileEntry();
+		bigChanged.setPath("diff/big.txt");
+		bigChanged.setContent(big + "more\n");
+		FileEntry binary = new FileEntry();
+		binary.setPath("diff/b.bin");
+		binary.setContent("\u0000\u0001\u0002");
+		new OnlineChangesetCommand().apply((FileRepository) repository, Change.puts(newArrayList(a, bigChanged, binary)),
+				new User("admin", "admin@gmail.com"), new User("admin2", "admin2@gmail.com"), "CHANGE");
+
+		OnlineDiffCommand diff = new OnlineDiffCommand(repository).setMaxBlobSize(500);
+		List<FileDiff> files = diff.getDiff(null, "HEAD", "diff");
+		assertEquals(3, files.size());
+		FileDiff changedText = files.get(0);
+		assertEquals("diff/a.txt", changedText.getNewPath());
+		assertEquals(DiffEntry.ChangeType.MODIFY, changedText.getChangeType());
+		// the changes are 10 lines apart, more than twice the context, so they are in separate hunks
+		assertEquals(2, changedText.getHunks().size());
+		DiffHunk hunk = changedText.getHunks().get(0);
+		assertEquals("@@ -7,7 +7,7 @@", hunk.getHeader());
+		assertEquals(newArrayList(" line7", " line8", " line9", "-line10", "+changed10", " line11", " line12", " line13"),
+				hunk.getLines());
+		assertEquals("@@ -17,4 +17,4 @@", changedText.getHunks().get(1).getHeader());
+
+		FileDiff added = files.get(1);
+		assertEquals("diff/b.bin", added.getNewPath());
+		assertNull(added.getOldPath());
+		assertEquals(DiffEntry.ChangeType.ADD, added.getChangeType());
+		assertTrue(added.isBinary());
+		assertNull(added.getHunks());
+		assertTrue(files.get(2).isTooLarge());
+		assertNull(files.get(2).getHunks());
+
+		assertEquals(1, diff.getDiff(before.name(), "HEAD", "diff/a.txt").size());
+		assertTrue(diff.getDiff("HEAD", "HEAD", "").isEmpty());
+		assertNull(diff.getDiff("unknown", "HEAD", ""));
+
+		// the changed files are listed without reading a blob
+		CommandMetrics metrics = new CommandMetrics();
+		OnlineDiffCommand.Diff opened = diff.setListener(metrics).open(null, null, "");
+		try {
+			int count = 0;
+			while (opened.hasNext()) {
+				opened.next();
+				count++;
+			}
+			assertEquals(3, count);
+			assertEquals(0, metrics.getObjectsRead());
+		} finally {
+			opened.close();
+		}
+
+		new OnlineChangesetCommand().apply((FileRepository) repository, newArrayList(Change.rename("diff/a.txt", "diff/c.txt")),
+				new User("admin", "admin@gmail.com"), new User("admin2", "admin2@gmail.com"), "RENAME");
+		assertEquals(2, new OnlineDiffCommand(repository).getDiff(null, null, "").size());
+		List<FileDiff> renamed = new OnlineDiffCommand(repository).setDetectRenames(true).getDiff(null, null, "");
+		assertEquals(1, renamed.size());
+		assertEquals(DiffEntry.ChangeType.RENAME, renamed.get(0).getChangeType());
+		assertEquals("diff/a.txt", renamed.get(0).getOldPath());
+		assertEquals("diff/c.txt", renamed.get(0).getNewPath());
+		assertTrue(renamed.get(0).getHunks().isEmpty());
+	}
+
+	@Test
+	public void testGrep() throws IOException, GitAPIException {
+		Git git = getGit();
+		Repository repository = git.getRepository();
+		StringBuilder many = new StringBuilder();
+		for (int i = 0; i < 50; i++) {
+			many.append("hello ").append(i).append('\n');
+		}
+		String[][] files = {
+				{"grep/a.txt", "hello world\nfoo a.b\r\nHello again"},
+				{"grep/b.txt", "hello world\nfoo a.b\r\nHello again"},
+				{"grep/c.bin", "\u0000hello"},
+				{"grep/long.txt", "0123456789hello"},
+				{"grep/sub/d.txt", many.toString()}};
+		List<FileEntry> entries = newArrayList();
+		for (String[] each : files) {
+			FileEntry fileEntry = new FileEntry();
+			fileEntry.setPath(each[0]);
+			fileEntry.setContent(each[1]);
+			entries.add(fileEntry);
+		}
+		new OnlineAddCommand().call((FileRepository) repository, entries,
+				new User("admin", "admin@gmail.com"), new User("admin2", "admin2@gmail.com"), "ADD GREP");
+
+		// a.txt and b.txt share a blob, which is scanned once, and c.bin is skipped after its first bytes
+		CommandMetrics metrics = new CommandMetrics();
+		OnlineGrepCommand grep = new OnlineGrepCommand(repository).setListener(metrics).setSearchPool(null, 0);
+		List<GrepMatch> matches = grep.grep("HEAD", "grep", "hello", 0);
+		assertEquals(53, matches.size());
+		assertEquals(4, metrics.getObjectsRead());
+		assertEquals("grep/a.txt", matches.get(0).getPath());
+		assertEquals(1, matches.get(0).getLineNumber());
+		assertEquals("hello world", matches.get(0).getLine());
+		assertEquals("grep/b.txt", matches.get(1).getPath());
+		assertEquals("grep/long.txt", matches.get(2).getPath());
+		assertEquals("grep/sub/d.txt", matches.get(3).getPath());
+
+		assertEquals(55, grep.setIgnoreCase(true).grep("HEAD", "grep", "HELLO", 0).size());
+		assertEquals(2, grep.setIgnoreCase(false).grep("HEAD", "grep", "a.b", 0).size());
+		assertEquals("foo a.b", grep.grep("HEAD", "grep/a.txt", "a.b", 0).get(0).getLine());
+		assertEquals(0, grep.grep("HEAD", "grep", "a\\.b", 0).size());
+		assertEquals(2, grep.setRegex(true).grep("HEAD", "grep", "^H.*n$", 0).size());
+		assertEquals(52, grep.setRegex(false).setMaxLineLength(10).grep("HEAD", "grep", "hello", 0).size());
+		assertNull(grep.grep("HEAD", "none", "hello", 0));
+		assertNull(grep.grep("unknown", "grep", "hello", 0));
+
+		// on a pool, the same matches are found, and the search stops at the limit
+		OnlineGrepCommand parallel = new OnlineGrepCommand(repository).setSearchPool(new ForkJoinPool(4), 1);
+		List<GrepMatch> found = parallel.grep(null, "", "hello", 0);
+		assertTrue(found.size() >= 53);
+		for (GrepMatch each : matches) {
+			boolean contains = false;
+			for (GrepMatch other : found) {
+				contains |= other.getPath().equals(each.getPath()) && other.getLineNumber() == each.getLineNumber();
+			}
+			assertTrue(each.getPath(), contains);
+		}
+		assertEquals(5, parallel.grep(null, "grep", "hello", 5).size());
+	}
+
+	@Test
+	public void testDirectorySize() throws IOException, GitAPIException {
+		Git git = getGit();
+		Repository repository = git.getRepository();
+		List<FileEntry> changes = newArrayList();
+		for (String each : new String[]{"a/x", "a/y", "b/z"}) {
+			FileEntry fileEntry = new FileEntry();
+			fileEntry.setPath("rollup/" + each);
+			fileEntry.setContent("1234");
+			changes.add(fileEntry);
+		}
+		new OnlineAddCommand().call((FileRepository) repository, changes,
+				new User("admin", "admin@gmail.com"), new User("admin2", "admin2@gmail.com"), "ADD ROLLUP");
+
+		TreeRollupCache rollups = new TreeRollupCache();
+		OnlineLsCommand ls = new OnlineLsCommand(repository).setTreeRollupCache(rollups);
+		List<FileEntry> entries = ls.getLsRecursive("HEAD", "rollup", EnumSet.of(EntryField.SIZE, EntryField.DIRECTORY_SIZE));
+		List<String> paths = newArrayList();
+		for (FileEntry each : entries) {
+			paths.add(each.getPath());
+		}
+		assertEquals(newArrayList("rollup/a", "rollup/a/x", "rollup/a/y", "rollup/b", "rollup/b/z"), paths);
+		assertEquals(8, entries.get(0).getFileSize());
+		assertEquals(2, entries.get(0).getFileCount());
+		assertEquals(4, entries.get(1).getFileSize());
+		assertEquals(12, ls.getDirectorySize("HEAD", "rollup").getSize());
+		assertEquals(3, ls.getDirectorySize("HEAD", "rollup").getFileCount());
+		assertNull(ls.getDirectorySize("HEAD", "rollup/a/x"));
+
+		// only the trees on the changed path are summed again
+		long misses = rollups.getMissCount();
+		addFile(git, "rollup/b/w", "12");
+		assertEquals(14, ls.getDirectorySize("HEAD", "rollup").getSize());
+		assertEquals(misses + 2, rollups.getMissCount());
+	}
+
+	@Test
+	public void testRepositoryGenerator() throws IOException, GitAPIException {
+		RepositoryGenerator generator = new RepositoryGenerator().setSeed(7).setFileCount(200).setDepth(2).setFanOut(4)
+				.setHistoryLength(30).setMergeEvery(5).setBlobSizes(RepositoryGenerator.SizeDistribution.uniform(10, 100));
+		File first = Files.createTempDir();
+		File second = Files.createTempDir();
+		FileUtils.forceDeleteOnExit(first);
+		FileUtils.forceDeleteOnExit(second);
+		Repository repository = generator.generate(first);
+		Repository again = generator.generate(second);
+		assertEquals(repository.resolve(Constants.HEAD), again.resolve(Constants.HEAD));
+
+		int files = 0;
+		for (FileEntry each : new OnlineLsCommand(repository).getLsRecursive("HEAD", "", EnumSet.noneOf(EntryField.class))) {
+			if (!each.isDir()) {
+				files++;
+			}
+		}
+		assertEquals(200, files);
+		assertEquals(200, generator.getPaths().size());
+
+		int commits = 0;
+		int merges = 0;
+		RevWalk revWalk = new RevWalk(repository);
+		revWalk.markStart(revWalk.parseCommit(repository.resolve(Constants.HEAD)));
+		for (RevCommit each : revWalk) {
+			commits++;
+			if (each.getParentCount() > 1) {
+				merges++;
+			}
+		}
+		revWalk.release();
+		assertEquals(6, merges);
+		// the first commit and 30 steps, each merge step adding a main and a side commit below the merge
+		assertEquals(1 + 30 + 2 * 6, commits);
+	}
+
+	@Test
+	public void testCommandMetrics() throws IOException, GitAPIException {
+		Git git = getGit();
+		FileEntry first = new FileEntry();
+		first.setPath("metrics/a");
+		first.setContent("a");
+		FileEntry second = new FileEntry();
+		second.setPath("metrics/b");
+		second.setContent("b");
+
+		CommandMetrics metrics = new CommandMetrics();
+		new OnlineChangesetCommand().setListener(metrics).apply((FileRepository) git.getRepository(),
+				Change.puts(newArrayList(first, second)),
+				new User("admin", "admin@gmail.com"), new User("admin2", "admin2@gmail.com"), "METRICS");
+		assertEquals(1, metrics.getHistogram(Phase.RESOLVE).getCount());
+		assertEquals(1, metrics.getHistogram(Phase.BLOB_INSERT).getCount());
+		assertEquals(1, metrics.getHistogram(Phase.TREE_WRITE).getCount());
+		assertEquals(1, metrics.getHistogram(Phase.REF_UPDATE).getCount());
+		// 2 blobs, the root and metrics trees, and the commit
+		assertEquals(5, metrics.getObjectsInserted());
+		assertEquals(0, metrics.getRefLockRetries());
+
+		metrics.reset();
+		OnlineLsCommand ls = new OnlineLsCommand(git.getRepository()).setListener(metrics)
+				.setUseLastCommitIndex(false).setTreeListingCache(new TreeListingCache());
+		assertEquals(2, ls.getLs("HEAD", "metrics").size());
+		assertEquals(1, metrics.getHistogram(Phase.RESOLVE).getCount());
+		assertEquals(1, metrics.getHistogram(Phase.TREE_WALK).getCount());
+		assertEquals(1, metrics.getHistogram(Phase.HISTORY_WALK).getCount());
+		assertEquals(1, metrics.getCommitsWalked());
+		assertTrue(metrics.getObjectsRead() >= 3);
+		assertEquals(0, metrics.getHistogram(Phase.BLOB_INSERT).getCount());
+	}
+
+	@Test
+	public void testHistogram() {
+		Histogram histogram = new Histogram();
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i);
+		}
+		assertEquals(1000, histogram.getCount());
+		assertEquals(1000, histogram.getMax());
+		assertEquals(500.5, histogram.getMean(), 0.001);
+		long p50 = histogram.getPercentile(0.5);
+		assertTrue(p50 >= 500 && p50 <= 500 * 1.125);
+		long p99 = histogram.getPercentile(0.99);
+		assertTrue(p99 >= 990 && p99 <= 1000);
+		assertEquals(1, histogram.getPercentile(0.0));
+	}
+
+	@Test
+	public void testFileDeleteReusesSubtrees() throws IOException, GitAPIException {
+		Git git = getGit();
+		Repository repository = git.getRepository();
+		addFile(git, "wwww/a/x", "x");
+		addFile(git, "wwww/a.b", "ab");
+		addFile(git, "wwww/b/y", "y");
+		RevCommit before = git.log().setMaxCount(1).call().iterator().next();
+
+		FileEntry fileEntry = new FileEntry();
+		fileEntry.setPath("wwww/a/x");
+		new OnlineRmCommand().call((FileRepository) repository, newArrayList(fileEntry),
+				new User("admin", "admin@gmail.com"), new User("admin2", "admin2@gmail.com"), "DELETE");
+		RevCommit after = git.log().setMaxCount(1).call().iterator().next();
+
+		assertNull(TreeWalk.forPath(repository, "wwww/a", after.getTree()));
+		assertEquals(TreeWalk.forPath(repository, "wwww/b", before.getTree()).getObjectId(0),
+				TreeWalk.forPath(repository, "wwww/b", after.getTree()).getObjectId(0));
+
+		// the rewritten tree must be identical to the one built from a full index
+		DirCache dc = DirCache.newInCore();
+		DirCacheBuilder builder = dc.builder();
+		builder.addTree(new byte[0], 0, repository.newObjectReader(), before.getTree());
+		builder.finish();
+		DirCacheEditor editor = dc.editor();
+		editor.add(new DirCacheEditor.DeletePath("wwww/a/x"));
+		editor.finish();
+		assertEquals(dc.writeTree(repository.newObjectInserter()), after.getTree().getId());
+	}
+
 	@Test
 	public void testLs() throws IOException, GitAPIException {
 		Git git = getGit();
 		addFile(git, "wwww/REAdDME33", "2222222222222222223333333333" + Math.random());
 		addFile(git, "wwww/1wewew/REAd22DME33", "2222222222222222223333333333" + Math.random());
 		OnlineLsCommand command = new OnlineLsCommand(git.getRepository());
-		for (FileEntry each : command.getLs("HEAD", "wwww")) {
+		List<FileEntry> entries = command.getLs("HEAD", "wwww");
+		for (FileEntry each : entries) {
 			System.out.println(each.getPath() + "-" + each.isDir());
 		}
+		assertEquals(2, entries.size());
+		assertEquals("wwww/1wewew", entries.get(0).getPath());
+		assertTrue(entries.get(0).isDir());
+		assertEquals(FileMode.TREE, entries.get(0).getMode());
+		assertEquals("wwww/REAdDME33", entries.get(1).getPath());
+		assertTrue(!entries.get(1).isDir());
+		assertEquals(FileMode.REGULAR_FILE, entries.get(1).getMode());
+		assertNotNull(entries.get(1).getCommitId());
 
+		// listing follows the requested revision, not HEAD
+		assertEquals(1, command.getLs("HEAD~1", "wwww").size());
+		List<FileEntry> file = command.getLs("HEAD", "wwww/1wewew/REAd22DME33");
+		assertEquals("wwww/1wewew/REAd22DME33", file.get(0).getPath());
 	}
 
 }
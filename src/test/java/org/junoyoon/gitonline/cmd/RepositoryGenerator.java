@@ -0,0 +1,275 @@
+package org.junoyoon.gitonline.cmd;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Build a bare repository of a given scale for load and scaling tests.
+ * <p/>
+ * Everything, the layout, the contents, the history and the commit times, comes from one seeded
+ * {@link Random}, so the same settings always build the same commits. The first commit adds
+ * {@code fileCount} files, placed in directories up to {@code depth} levels deep with at most
+ * {@code fanOut} subdirectories each. Each of the following {@code historyLength} commits changes
+ * {@code changesPerCommit} of them, and every {@code mergeEvery}-th one merges a side commit.
+ * <p/>
+ * The whole history is written into a single pack, as a cloned repository would have it.
+ */
+public class RepositoryGenerator {
+
+	private static final String TEXT = "abcdefghijklmnopqrstuvwxyz      \n";
+	private static final String[] EXTENSIONS = {".txt", ".java", ".md", ".json"};
+	private static final long EPOCH = 1400000000L;
+
+	private long seed = 42;
+	private int fileCount = 1000;
+	private int depth = 3;
+	private int fanOut = 8;
+	private int historyLength = 100;
+	private int changesPerCommit = 3;
+	private int mergeEvery = 0;
+	private SizeDistribution blobSizes = SizeDistribution.logNormal(2048, 1.0, 1024 * 1024);
+
+	private Random random;
+	private List<String> paths;
+	private int time;
+
+	public RepositoryGenerator setSeed(long seed) {
+		this.seed = seed;
+		return this;
+	}
+
+	public RepositoryGenerator setFileCount(int fileCount) {
+		this.fileCount = fileCount;
+		return this;
+	}
+
+	/**
+	 * @param depth maximum number of directories above a file
+	 */
+	public RepositoryGenerator setDepth(int depth) {
+		this.depth = depth;
+		return this;
+	}
+
+	/**
+	 * @param fanOut maximum number of subdirectories of a directory
+	 */
+	public RepositoryGenerator setFanOut(int fanOut) {
+		this.fanOut = fanOut;
+		return this;
+	}
+
+	/**
+	 * @param historyLength number of commits after the first one
+	 */
+	public RepositoryGenerator setHistoryLength(int historyLength) {
+		this.historyLength = historyLength;
+		return this;
+	}
+
+	public RepositoryGenerator setChangesPerCommit(int changesPerCommit) {
+		this.changesPerCommit = changesPerCommit;
+		return this;
+	}
+
+	/**
+	 * @param mergeEvery make every {@code mergeEvery}-th commit a merge. Zero makes a linear history.
+	 */
+	public RepositoryGenerator setMergeEvery(int mergeEvery) {
+		this.mergeEvery = mergeEvery;
+		return this;
+	}
+
+	public RepositoryGenerator setBlobSizes(SizeDistribution blobSizes) {
+		this.blobSizes = blobSizes;
+		return this;
+	}
+
+	/**
+	 * Create a bare repository in {@code gitDir} and point its master branch at the generated history.
+	 */
+	public FileRepository generate(File gitDir) throws IOException, GitAPIException {
+		random = new Random(seed);
+		time = 0;
+		paths = newPaths();
+		Git.init().setBare(true).setDirectory(gitDir).call().getRepository().close();
+		FileRepository repository = new FileRepository(gitDir);
+
+		PackInserter inserter = new PackInserter(repository);
+		ObjectReader reader = inserter.newReader();
+		try {
+			TreeRewriter initial = new TreeRewriter(reader, null);
+			for (String each : paths) {
+				initial.put(each, FileMode.REGULAR_FILE, newBlob(inserter));
+			}
+			ObjectId treeId = initial.writeTo(inserter);
+			ObjectId headId = insertCommit(inserter, treeId, "initial", Collections.<ObjectId>emptyList());
+
+			for (int i = 1; i <= historyLength; i++) {
+				List<String> changed = pickPaths(changesPerCommit);
+				if (mergeEvery > 0 && i % mergeEvery == 0) {
+					// side 와 main 은 서로 다른 파일을 바꾸므로 merge 는 둘을 합친 tree 가 된다
+					List<String> sideChanged = pickPaths(changesPerCommit);
+					sideChanged.removeAll(changed);
+					Map<String, ObjectId> sideBlobs = new TreeMap<String, ObjectId>();
+					for (String each : sideChanged) {
+						sideBlobs.put(each, newBlob(inserter));
+					}
+					ObjectId sideTreeId = put(new TreeRewriter(reader, treeId), sideBlobs).writeTo(inserter);
+					ObjectId sideId = insertCommit(inserter, sideTreeId, "side " + i, Collections.singletonList(headId));
+
+					ObjectId mainTreeId = change(reader, treeId, changed, inserter).writeTo(inserter);
+					ObjectId mainId = insertCommit(inserter, mainTreeId, "change " + i, Collections.singletonList(headId));
+
+					treeId = put(new TreeRewriter(reader, mainTreeId), sideBlobs).writeTo(inserter);
+					List<ObjectId> parents = new ArrayList<ObjectId>();
+					parents.add(mainId);
+					parents.add(sideId);
+					headId = insertCommit(inserter, treeId, "merge " + i, parents);
+				} else {
+					treeId = change(reader, treeId, changed, inserter).writeTo(inserter);
+					headId = insertCommit(inserter, treeId, "change " + i, Collections.singletonList(headId));
+				}
+			}
+			inserter.flush();
+
+			RefUpdate ru = repository.updateRef(Constants.R_HEADS + Constants.MASTER);
+			ru.setNewObjectId(headId);
+			ru.setRefLogMessage("generated", false);
+			ru.forceUpdate();
+		} finally {
+			reader.release();
+			inserter.release();
+		}
+		return repository;
+	}
+
+	/**
+	 * @return paths of the files of the last generated repository, which are the same at every commit
+	 */
+	public List<String> getPaths() {
+		return Collections.unmodifiableList(paths);
+	}
+
+	private List<String> newPaths() {
+		List<String> result = new ArrayList<String>(fileCount);
+		for (int i = 0; i < fileCount; i++) {
+			StringBuilder path = new StringBuilder();
+			int levels = random.nextInt(depth + 1);
+			for (int level = 0; level < levels; level++) {
+				path.append("dir").append(random.nextInt(fanOut)).append('/');
+			}
+			path.append("file").append(i).append(EXTENSIONS[random.nextInt(EXTENSIONS.length)]);
+			result.add(path.toString());
+		}
+		Collections.sort(result);
+		return result;
+	}
+
+	private List<String> pickPaths(int count) {
+		Set<String> picked = new HashSet<String>();
+		while (picked.size() < Math.min(count, paths.size())) {
+			picked.add(paths.get(random.nextInt(paths.size())));
+		}
+		List<String> result = new ArrayList<String>(picked);
+		Collections.sort(result);
+		return result;
+	}
+
+	private TreeRewriter change(ObjectReader reader, ObjectId treeId, List<String> changed, ObjectInserter inserter) throws IOException {
+		TreeRewriter rewriter = new TreeRewriter(reader, treeId);
+		for (String each : changed) {
+			rewriter.put(each, FileMode.REGULAR_FILE, newBlob(inserter));
+		}
+		return rewriter;
+	}
+
+	private TreeRewriter put(TreeRewriter rewriter, Map<String, ObjectId> blobs) {
+		for (Map.Entry<String, ObjectId> each : blobs.entrySet()) {
+			rewriter.put(each.getKey(), FileMode.REGULAR_FILE, each.getValue());
+		}
+		return rewriter;
+	}
+
+	private ObjectId newBlob(ObjectInserter inserter) throws IOException {
+		byte[] content = new byte[blobSizes.next(random)];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) TEXT.charAt(random.nextInt(TEXT.length()));
+		}
+		return inserter.insert(Constants.OBJ_BLOB, content);
+	}
+
+	private ObjectId insertCommit(ObjectInserter inserter, ObjectId treeId, String message, List<ObjectId> parents) throws IOException {
+		PersonIdent ident = new PersonIdent("generator", "generator@example.com",
+				(EPOCH + 60L * time++) * 1000, 0);
+		CommitBuilder commit = new CommitBuilder();
+		commit.setAuthor(ident);
+		commit.setCommitter(ident);
+		commit.setMessage(message);
+		commit.setParentIds(parents);
+		commit.setTreeId(treeId);
+		return inserter.insert(commit);
+	}
+
+	/**
+	 * Sizes of the generated blobs.
+	 */
+	public abstract static class SizeDistribution {
+
+		public abstract int next(Random random);
+
+		public static SizeDistribution fixed(final int size) {
+			return new SizeDistribution() {
+				@Override
+				public int next(Random random) {
+					return size;
+				}
+			};
+		}
+
+		public static SizeDistribution uniform(final int min, final int max) {
+			return new SizeDistribution() {
+				@Override
+				public int next(Random random) {
+					return min + random.nextInt(max - min + 1);
+				}
+			};
+		}
+
+		/**
+		 * Mostly small files around {@code median} with a long tail of big ones, as in most source trees.
+		 *
+		 * @param sigma standard deviation of the logarithm of the size
+		 * @param max   largest size, which cuts the tail
+		 */
+		public static SizeDistribution logNormal(final int median, final double sigma, final int max) {
+			return new SizeDistribution() {
+				@Override
+				public int next(Random random) {
+					double size = median * Math.exp(sigma * random.nextGaussian());
+					return (int) Math.min(max, Math.round(size));
+				}
+			};
+		}
+	}
+}